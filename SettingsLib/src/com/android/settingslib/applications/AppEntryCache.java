@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+
+package com.android.settingslib.applications;
+
+import android.os.UserHandle;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * Persists the labels and sizes of {@link ApplicationsState.AppEntry app entries} across process
+ * starts, so a cold start can show the full list of apps right away and only has to refresh the
+ * entries that went stale. Cached values of a package are only handed out as long as its apk
+ * wasn't modified since they were stored, and labels only while the locale is unchanged.
+ */
+class AppEntryCache {
+    private static final String TAG = "AppEntryCache";
+
+    private static final int VERSION = 1;
+
+    static final class CachedEntry {
+        long apkModified;
+        String label;
+        long size;
+        long internalSize;
+        long externalSize;
+        long cacheSize;
+        long codeSize;
+        long dataSize;
+        long externalCodeSize;
+        long externalDataSize;
+        long externalCacheSize;
+    }
+
+    private final AtomicFile mFile;
+    // Map: userid => (Map: package name => CachedEntry)
+    private final SparseArray<HashMap<String, CachedEntry>> mEntries =
+            new SparseArray<HashMap<String, CachedEntry>>();
+    // The locale the cached labels were loaded in.
+    private String mLocale;
+    private boolean mDirty;
+
+    AppEntryCache(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Reads the cache from disk, replacing anything that was cached in memory before.
+     */
+    synchronized void load() {
+        mEntries.clear();
+        mLocale = null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            mLocale = in.readUTF();
+            final int N = in.readInt();
+            for (int i = 0; i < N; i++) {
+                final int userId = in.readInt();
+                final String packageName = in.readUTF();
+                final CachedEntry entry = new CachedEntry();
+                entry.apkModified = in.readLong();
+                entry.label = in.readBoolean() ? in.readUTF() : null;
+                entry.size = in.readLong();
+                entry.internalSize = in.readLong();
+                entry.externalSize = in.readLong();
+                entry.cacheSize = in.readLong();
+                entry.codeSize = in.readLong();
+                entry.dataSize = in.readLong();
+                entry.externalCodeSize = in.readLong();
+                entry.externalDataSize = in.readLong();
+                entry.externalCacheSize = in.readLong();
+                getUserEntries(userId).put(packageName, entry);
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read " + mFile.getBaseFile(), e);
+            mEntries.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cached values of a package, or null if there are none or the apk was
+     * modified since they were stored.
+     */
+    synchronized CachedEntry get(int userId, String packageName, long apkModified) {
+        final HashMap<String, CachedEntry> userEntries = mEntries.get(userId);
+        final CachedEntry entry = userEntries != null ? userEntries.get(packageName) : null;
+        if (entry == null || entry.apkModified != apkModified || apkModified == 0) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the cached label of a package if it is still valid in the given locale.
+     */
+    synchronized String getLabel(int userId, String packageName, long apkModified,
+            String locale) {
+        if (!Objects.equals(mLocale, locale)) {
+            return null;
+        }
+        final CachedEntry entry = get(userId, packageName, apkModified);
+        return entry != null ? entry.label : null;
+    }
+
+    /**
+     * Replaces the cache with the current state of the given entries. Needs to be called with
+     * the lock of the entries held, the cache is only written by {@link #write}.
+     */
+    synchronized void update(ArrayList<ApplicationsState.AppEntry> appEntries, String locale) {
+        if (!Objects.equals(mLocale, locale)) {
+            mLocale = locale;
+            mDirty = true;
+        }
+        final SparseArray<HashMap<String, CachedEntry>> oldEntries = mEntries.clone();
+        mEntries.clear();
+        final int N = appEntries.size();
+        for (int i = 0; i < N; i++) {
+            final ApplicationsState.AppEntry appEntry = appEntries.get(i);
+            final int userId = UserHandle.getUserId(appEntry.info.uid);
+            final String packageName = appEntry.info.packageName;
+            final HashMap<String, CachedEntry> oldUserEntries = oldEntries.get(userId);
+            CachedEntry entry = oldUserEntries != null ? oldUserEntries.remove(packageName) : null;
+            if (entry == null) {
+                entry = new CachedEntry();
+                mDirty = true;
+            }
+            synchronized (appEntry) {
+                mDirty |= copyFrom(entry, appEntry);
+            }
+            getUserEntries(userId).put(packageName, entry);
+        }
+        for (int i = 0; i < oldEntries.size(); i++) {
+            if (!oldEntries.valueAt(i).isEmpty()) {
+                // Some packages are gone.
+                mDirty = true;
+                break;
+            }
+        }
+    }
+
+    private static boolean copyFrom(CachedEntry entry, ApplicationsState.AppEntry appEntry) {
+        final long apkModified = appEntry.apkFile.lastModified();
+        // Unmounted apps only have their package name as label.
+        final String label = appEntry.mounted ? appEntry.label : null;
+        // Sizes which are still being loaded are taken over from the cache.
+        final boolean hasSize = appEntry.size >= 0;
+        if (entry.apkModified == apkModified && Objects.equals(entry.label, label)
+                && (!hasSize || (entry.size == appEntry.size
+                        && entry.internalSize == appEntry.internalSize
+                        && entry.externalSize == appEntry.externalSize
+                        && entry.cacheSize == appEntry.cacheSize
+                        && entry.codeSize == appEntry.codeSize
+                        && entry.dataSize == appEntry.dataSize
+                        && entry.externalCodeSize == appEntry.externalCodeSize
+                        && entry.externalDataSize == appEntry.externalDataSize
+                        && entry.externalCacheSize == appEntry.externalCacheSize))) {
+            return false;
+        }
+        if (entry.apkModified != apkModified && !hasSize) {
+            entry.size = ApplicationsState.SIZE_UNKNOWN;
+        }
+        entry.apkModified = apkModified;
+        entry.label = label;
+        if (hasSize) {
+            entry.size = appEntry.size;
+            entry.internalSize = appEntry.internalSize;
+            entry.externalSize = appEntry.externalSize;
+            entry.cacheSize = appEntry.cacheSize;
+            entry.codeSize = appEntry.codeSize;
+            entry.dataSize = appEntry.dataSize;
+            entry.externalCodeSize = appEntry.externalCodeSize;
+            entry.externalDataSize = appEntry.externalDataSize;
+            entry.externalCacheSize = appEntry.externalCacheSize;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the cache to disk if it changed since it was last loaded or written.
+     */
+    void write() {
+        final byte[] data;
+        synchronized (this) {
+            if (!mDirty) {
+                return;
+            }
+            mDirty = false;
+            data = serializeLocked();
+        }
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            out.write(data);
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + mFile.getBaseFile(), e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+    private byte[] serializeLocked() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bytes));
+        try {
+            out.writeInt(VERSION);
+            out.writeUTF(mLocale != null ? mLocale : "");
+            int count = 0;
+            for (int i = 0; i < mEntries.size(); i++) {
+                count += mEntries.valueAt(i).size();
+            }
+            out.writeInt(count);
+            for (int i = 0; i < mEntries.size(); i++) {
+                final int userId = mEntries.keyAt(i);
+                for (HashMap.Entry<String, CachedEntry> e : mEntries.valueAt(i).entrySet()) {
+                    final CachedEntry entry = e.getValue();
+                    out.writeInt(userId);
+                    out.writeUTF(e.getKey());
+                    out.writeLong(entry.apkModified);
+                    out.writeBoolean(entry.label != null);
+                    if (entry.label != null) {
+                        out.writeUTF(entry.label);
+                    }
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.internalSize);
+                    out.writeLong(entry.externalSize);
+                    out.writeLong(entry.cacheSize);
+                    out.writeLong(entry.codeSize);
+                    out.writeLong(entry.dataSize);
+                    out.writeLong(entry.externalCodeSize);
+                    out.writeLong(entry.externalDataSize);
+                    out.writeLong(entry.externalCacheSize);
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Can't happen when writing to memory.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private HashMap<String, CachedEntry> getUserEntries(int userId) {
+        HashMap<String, CachedEntry> userEntries = mEntries.get(userId);
+        if (userEntries == null) {
+            userEntries = new HashMap<String, CachedEntry>();
+            mEntries.put(userId, userEntries);
+        }
+        return userEntries;
+    }
+}
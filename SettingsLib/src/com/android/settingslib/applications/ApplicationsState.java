@@ -43,12 +43,15 @@ import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.text.format.Formatter;
+import android.util.ArraySet;
 import android.util.Log;
 import android.util.SparseArray;
 
 import com.android.internal.util.ArrayUtils;
+import com.android.settingslib.BackgroundThreadPool;
 
 import java.io.File;
+import java.text.CollationKey;
 import java.text.Collator;
 import java.text.Normalizer;
 import java.text.Normalizer.Form;
@@ -56,8 +59,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 /**
@@ -72,9 +79,25 @@ public class ApplicationsState {
     public static final int SIZE_UNKNOWN = -1;
     public static final int SIZE_INVALID = -2;
 
+    // Labels, icons and sizes are loaded on a small pool next to the loader thread.
+    static final int LOADER_THREADS =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    static final int LOAD_ENTRIES_BATCH = 6 * LOADER_THREADS;
+    static final int LOAD_ICONS_BATCH = 2 * LOADER_THREADS;
+    static final int MAX_SIZE_REQUESTS = LOADER_THREADS;
+
+    static final String ENTRY_CACHE_FILE = "app_entries";
+
+    // Up to this many apps with changed sort keys are inserted into the last sorted list of a
+    // session, instead of sorting all apps again.
+    static final int MAX_INCREMENTAL_SORT_CHANGES = 32;
+
     static final Pattern REMOVE_DIACRITICALS_PATTERN
             = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
 
+    // Synchronize on it for creating collation keys.
+    static final Collator sLabelCollator = Collator.getInstance();
+
     static final Object sLock = new Object();
     static ApplicationsState sInstance;
 
@@ -109,8 +132,10 @@ public class ApplicationsState {
     final ArrayList<AppEntry> mAppEntries = new ArrayList<AppEntry>();
     List<ApplicationInfo> mApplications = new ArrayList<ApplicationInfo>();
     long mCurId = 1;
-    String mCurComputingSizePkg;
-    int mCurComputingSizeUserId;
+    // The packages whose sizes are being computed, see getSizeKey().
+    final ArraySet<String> mComputingSizes = new ArraySet<String>();
+    // The locales the labels are loaded in.
+    String mLocales;
     boolean mSessionsChanged;
 
     // Temporary for dispatching session callbacks.  Only touched by main thread.
@@ -118,6 +143,8 @@ public class ApplicationsState {
 
     final HandlerThread mThread;
     final BackgroundHandler mBackgroundHandler;
+    final ThreadPoolExecutor mLoaderPool;
+    final AppEntryCache mEntryCache;
     final MainHandler mMainHandler = new MainHandler(Looper.getMainLooper());
 
     private ApplicationsState(Application app) {
@@ -132,6 +159,11 @@ public class ApplicationsState {
                 Process.THREAD_PRIORITY_BACKGROUND);
         mThread.start();
         mBackgroundHandler = new BackgroundHandler(mThread.getLooper());
+        mLoaderPool = BackgroundThreadPool.create("ApplicationsState.Loader", LOADER_THREADS);
+
+        // Warm up with what was loaded by the last process, before any entries are created.
+        mEntryCache = new AppEntryCache(new File(mContext.getCacheDir(), ENTRY_CACHE_FILE));
+        mBackgroundHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_CACHE);
 
         // Only the owner can see all apps.
         mAdminRetrieveFlags = PackageManager.GET_UNINSTALLED_PACKAGES |
@@ -204,6 +236,7 @@ public class ApplicationsState {
             // If an interesting part of the configuration has changed, we
             // should completely reload the app entries.
             clearEntries();
+            mLocales = mContext.getResources().getConfiguration().getLocales().toLanguageTags();
         } else {
             for (int i=0; i<mAppEntries.size(); i++) {
                 mAppEntries.get(i).sizeStale = true;
@@ -233,7 +266,7 @@ public class ApplicationsState {
             // There are less apps now, some must have been uninstalled.
             clearEntries();
         }
-        mCurComputingSizePkg = null;
+        mComputingSizes.clear();
         if (!mBackgroundHandler.hasMessages(BackgroundHandler.MSG_LOAD_ENTRIES)) {
             mBackgroundHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_ENTRIES);
         }
@@ -463,12 +496,20 @@ public class ApplicationsState {
     }
 
     private AppEntry getEntryLocked(ApplicationInfo info) {
+        return getEntryLocked(info, null);
+    }
+
+    /**
+     * @param label the label of the app if it was already loaded, or null
+     */
+    private AppEntry getEntryLocked(ApplicationInfo info, String label) {
         int userId = UserHandle.getUserId(info.uid);
         AppEntry entry = mEntriesMap.get(userId).get(info.packageName);
         if (DEBUG) Log.i(TAG, "Looking up entry of pkg " + info.packageName + ": " + entry);
         if (entry == null) {
             if (DEBUG) Log.i(TAG, "Creating AppEntry for " + info.packageName);
-            entry = new AppEntry(mContext, info, mCurId++);
+            entry = new AppEntry(mContext, info, mCurId++, label);
+            applyCachedSizeLocked(entry, userId);
             mEntriesMap.get(userId).put(info.packageName, entry);
             mAppEntries.add(entry);
         } else if (entry.info != info) {
@@ -477,6 +518,54 @@ public class ApplicationsState {
         return entry;
     }
 
+    private void applyCachedSizeLocked(AppEntry entry, int userId) {
+        final AppEntryCache.CachedEntry cached = mEntryCache.get(userId, entry.info.packageName,
+                entry.apkFile.lastModified());
+        if (cached == null || cached.size < 0) {
+            return;
+        }
+        // The size stays stale, so it is refreshed once the loader gets to it.
+        entry.size = cached.size;
+        entry.cacheSize = cached.cacheSize;
+        entry.codeSize = cached.codeSize;
+        entry.dataSize = cached.dataSize;
+        entry.externalCodeSize = cached.externalCodeSize;
+        entry.externalDataSize = cached.externalDataSize;
+        entry.externalCacheSize = cached.externalCacheSize;
+        entry.sizeStr = getSizeStr(entry.size);
+        entry.internalSize = cached.internalSize;
+        entry.internalSizeStr = getSizeStr(entry.internalSize);
+        entry.externalSize = cached.externalSize;
+        entry.externalSizeStr = getSizeStr(entry.externalSize);
+    }
+
+    static String getSizeKey(String packageName, int userId) {
+        return userId + ":" + packageName;
+    }
+
+    /**
+     * Runs the tasks on the loader pool and waits for all of them to finish.
+     */
+    void runOnLoaderPool(ArrayList<Callable<Void>> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        try {
+            mLoaderPool.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while loading", e);
+        }
+    }
+
+    void saveEntryCache() {
+        synchronized (mEntriesMap) {
+            if (DEBUG_LOCKING) Log.v(TAG, "saveEntryCache acquired lock");
+            mEntryCache.update(mAppEntries, mLocales);
+            if (DEBUG_LOCKING) Log.v(TAG, "saveEntryCache releasing lock");
+        }
+        mEntryCache.write();
+    }
+
     // --------------------------------------------------------------
 
     private long getTotalInternalSize(PackageStats ps) {
@@ -539,6 +628,11 @@ public class ApplicationsState {
         ArrayList<AppEntry> mLastAppList;
         boolean mRebuildForeground;
 
+        // The apps of the last rebuild in sorted order, with the keys they were sorted by.  Only
+        // touched by the background thread.
+        Comparator<AppEntry> mSortedComparator;
+        ArrayList<SortedApp> mSortedApps;
+
         Session(Callbacks callbacks) {
             mCallbacks = callbacks;
         }
@@ -650,21 +744,25 @@ public class ApplicationsState {
             for (int i=0; i<apps.size(); i++) {
                 AppEntry entry = apps.get(i);
                 if (entry != null && (filter == null || filter.filterApp(entry))) {
-                    synchronized (mEntriesMap) {
-                        if (DEBUG_LOCKING) Log.v(TAG, "rebuild acquired lock");
-                        if (comparator != null) {
-                            // Only need the label if we are going to be sorting.
+                    // Only need the label if we are going to be sorting.  Most apps have it
+                    // loaded already, so only take the lock for the rest.
+                    if (comparator != null && (entry.label == null || !entry.mounted)) {
+                        synchronized (mEntriesMap) {
+                            if (DEBUG_LOCKING) Log.v(TAG, "rebuild acquired lock");
                             entry.ensureLabel(mContext);
+                            if (DEBUG_LOCKING) Log.v(TAG, "rebuild releasing lock");
                         }
-                        if (DEBUG) Log.i(TAG, "Using " + entry.info.packageName + ": " + entry);
-                        filteredApps.add(entry);
-                        if (DEBUG_LOCKING) Log.v(TAG, "rebuild releasing lock");
                     }
+                    if (DEBUG) Log.i(TAG, "Using " + entry.info.packageName + ": " + entry);
+                    filteredApps.add(entry);
                 }
             }
 
             if (comparator != null) {
-                Collections.sort(filteredApps, comparator);
+                sortApps(filteredApps, comparator);
+            } else {
+                mSortedComparator = null;
+                mSortedApps = null;
             }
 
             synchronized (mRebuildSync) {
@@ -686,6 +784,59 @@ public class ApplicationsState {
             Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
         }
 
+        /**
+         * Sorts the apps.  If they are sorted the same way as in the last rebuild, the order of
+         * the apps whose sort keys didn't change is kept and only the others are inserted.
+         */
+        private void sortApps(ArrayList<AppEntry> apps, final Comparator<AppEntry> comparator) {
+            if (!isIncrementalComparator(comparator)) {
+                Collections.sort(apps, comparator);
+                mSortedComparator = null;
+                mSortedApps = null;
+                return;
+            }
+            final Comparator<SortedApp> sortedComparator = new Comparator<SortedApp>() {
+                @Override
+                public int compare(SortedApp object1, SortedApp object2) {
+                    return comparator.compare(object1.entry, object2.entry);
+                }
+            };
+
+            final HashSet<AppEntry> unsorted = new HashSet<AppEntry>(apps);
+            ArrayList<SortedApp> sorted = new ArrayList<SortedApp>(apps.size());
+            if (comparator == mSortedComparator && mSortedApps != null) {
+                for (int i = 0; i < mSortedApps.size(); i++) {
+                    SortedApp app = mSortedApps.get(i);
+                    if (unsorted.contains(app.entry) && app.hasSameKeys(comparator)) {
+                        unsorted.remove(app.entry);
+                        sorted.add(app);
+                    }
+                }
+            }
+
+            if (!sorted.isEmpty() && unsorted.size() <= MAX_INCREMENTAL_SORT_CHANGES) {
+                if (DEBUG) Log.i(TAG, "Inserting " + unsorted.size() + " changed apps");
+                for (AppEntry entry : unsorted) {
+                    SortedApp app = new SortedApp(entry, comparator);
+                    int index = Collections.binarySearch(sorted, app, sortedComparator);
+                    sorted.add(index >= 0 ? index : -index - 1, app);
+                }
+            } else {
+                sorted.clear();
+                for (int i = 0; i < apps.size(); i++) {
+                    sorted.add(new SortedApp(apps.get(i), comparator));
+                }
+                Collections.sort(sorted, sortedComparator);
+            }
+
+            apps.clear();
+            for (int i = 0; i < sorted.size(); i++) {
+                apps.add(sorted.get(i).entry);
+            }
+            mSortedComparator = comparator;
+            mSortedApps = sorted;
+        }
+
         public void release() {
             pause();
             synchronized (mEntriesMap) {
@@ -694,6 +845,42 @@ public class ApplicationsState {
         }
     }
 
+    static boolean isIncrementalComparator(Comparator<AppEntry> comparator) {
+        return comparator == ALPHA_COMPARATOR || comparator == SIZE_COMPARATOR
+                || comparator == INTERNAL_SIZE_COMPARATOR || comparator == EXTERNAL_SIZE_COMPARATOR;
+    }
+
+    static long getSortSize(AppEntry entry, Comparator<AppEntry> comparator) {
+        if (comparator == SIZE_COMPARATOR) {
+            return entry.size;
+        } else if (comparator == INTERNAL_SIZE_COMPARATOR) {
+            return entry.internalSize;
+        } else if (comparator == EXTERNAL_SIZE_COMPARATOR) {
+            return entry.externalSize;
+        }
+        return 0;
+    }
+
+    /**
+     * An app in the sorted list of a session, along with the keys it was sorted by.  The keys
+     * are taken before sorting, so an app whose keys change meanwhile is sorted again next time.
+     */
+    static final class SortedApp {
+        final AppEntry entry;
+        final CollationKey labelKey;
+        final long size;
+
+        SortedApp(AppEntry entry, Comparator<AppEntry> comparator) {
+            this.entry = entry;
+            this.labelKey = entry.getLabelKey();
+            this.size = getSortSize(entry, comparator);
+        }
+
+        boolean hasSameKeys(Comparator<AppEntry> comparator) {
+            return labelKey == entry.getLabelKey() && size == getSortSize(entry, comparator);
+        }
+    }
+
     class MainHandler extends Handler {
         static final int MSG_REBUILD_COMPLETE = 1;
         static final int MSG_PACKAGE_LIST_CHANGED = 2;
@@ -765,6 +952,7 @@ public class ApplicationsState {
         static final int MSG_LOAD_ICONS = 3;
         static final int MSG_LOAD_SIZES = 4;
         static final int MSG_LOAD_LAUNCHER = 5;
+        static final int MSG_LOAD_CACHE = 6;
 
         boolean mRunning;
 
@@ -791,11 +979,34 @@ public class ApplicationsState {
             switch (msg.what) {
                 case MSG_REBUILD_LIST: {
                 } break;
+                case MSG_LOAD_CACHE: {
+                    mEntryCache.load();
+                } break;
                 case MSG_LOAD_ENTRIES: {
+                    // Loading the labels is what takes time, so do it for the next batch of
+                    // apps on the loader pool before creating their entries under the lock.
+                    final ArrayList<ApplicationInfo> infos = new ArrayList<ApplicationInfo>();
+                    final String locales;
+                    synchronized (mEntriesMap) {
+                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ENTRIES acquired lock");
+                        for (int i = 0; i < mApplications.size()
+                                && infos.size() < LOAD_ENTRIES_BATCH; i++) {
+                            ApplicationInfo info = mApplications.get(i);
+                            int userId = UserHandle.getUserId(info.uid);
+                            if (mEntriesMap.get(userId).get(info.packageName) == null) {
+                                infos.add(info);
+                            }
+                        }
+                        locales = mLocales;
+                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ENTRIES releasing lock");
+                    }
+                    final HashMap<ApplicationInfo, String> labels = loadLabels(infos, locales);
+
                     int numDone = 0;
                     synchronized (mEntriesMap) {
                         if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ENTRIES acquired lock");
-                        for (int i = 0; i < mApplications.size() && numDone < 6; i++) {
+                        for (int i = 0; i < mApplications.size()
+                                && numDone < LOAD_ENTRIES_BATCH; i++) {
                             if (!mRunning) {
                                 mRunning = true;
                                 Message m = mMainHandler.obtainMessage(
@@ -806,7 +1017,7 @@ public class ApplicationsState {
                             int userId = UserHandle.getUserId(info.uid);
                             if (mEntriesMap.get(userId).get(info.packageName) == null) {
                                 numDone++;
-                                getEntryLocked(info);
+                                getEntryLocked(info, labels.get(info));
                             }
                             if (userId != 0 && mEntriesMap.indexOfKey(0) >= 0) {
                                 // If this app is for a profile and we are on the owner, remove
@@ -827,13 +1038,14 @@ public class ApplicationsState {
                         if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ENTRIES releasing lock");
                     }
 
-                    if (numDone >= 6) {
+                    if (numDone >= LOAD_ENTRIES_BATCH) {
                         sendEmptyMessage(MSG_LOAD_ENTRIES);
                     } else {
                         if (!mMainHandler.hasMessages(MainHandler.MSG_LOAD_ENTRIES_COMPLETE)) {
                             mMainHandler.sendEmptyMessage(MainHandler.MSG_LOAD_ENTRIES_COMPLETE);
                         }
                         sendEmptyMessage(MSG_LOAD_LAUNCHER);
+                        saveEntryCache();
                     }
                 } break;
                 case MSG_LOAD_LAUNCHER: {
@@ -878,50 +1090,70 @@ public class ApplicationsState {
                     sendEmptyMessage(MSG_LOAD_ICONS);
                 } break;
                 case MSG_LOAD_ICONS: {
-                    int numDone = 0;
+                    final ArrayList<AppEntry> entries = new ArrayList<AppEntry>();
                     synchronized (mEntriesMap) {
                         if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS acquired lock");
-                        for (int i=0; i<mAppEntries.size() && numDone<2; i++) {
+                        for (int i=0; i<mAppEntries.size() && entries.size()<LOAD_ICONS_BATCH;
+                                i++) {
                             AppEntry entry = mAppEntries.get(i);
-                            if (entry.icon == null || !entry.mounted) {
+                            // Apps which aren't mounted only need another try once they are.
+                            if (entry.icon == null || (!entry.mounted && entry.apkFile.exists())) {
+                                entries.add(entry);
+                            }
+                        }
+                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS releasing lock");
+                    }
+                    // The icons are loaded outside of the lock, holding only the entries' locks.
+                    final AtomicInteger numDone = new AtomicInteger();
+                    final ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+                    for (int i = 0; i < entries.size(); i++) {
+                        final AppEntry entry = entries.get(i);
+                        tasks.add(new Callable<Void>() {
+                            @Override
+                            public Void call() {
                                 synchronized (entry) {
                                     if (entry.ensureIconLocked(mContext, mPm)) {
-                                        if (!mRunning) {
-                                            mRunning = true;
-                                            Message m = mMainHandler.obtainMessage(
-                                                    MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
-                                            mMainHandler.sendMessage(m);
-                                        }
-                                        numDone++;
+                                        numDone.incrementAndGet();
                                     }
                                 }
+                                return null;
                             }
-                        }
-                        if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_ICONS releasing lock");
+                        });
                     }
-                    if (numDone > 0) {
+                    runOnLoaderPool(tasks);
+                    if (numDone.get() > 0) {
+                        if (!mRunning) {
+                            mRunning = true;
+                            Message m = mMainHandler.obtainMessage(
+                                    MainHandler.MSG_RUNNING_STATE_CHANGED, 1);
+                            mMainHandler.sendMessage(m);
+                        }
                         if (!mMainHandler.hasMessages(MainHandler.MSG_PACKAGE_ICON_CHANGED)) {
                             mMainHandler.sendEmptyMessage(MainHandler.MSG_PACKAGE_ICON_CHANGED);
                         }
                     }
-                    if (numDone >= 2) {
+                    if (entries.size() >= LOAD_ICONS_BATCH) {
                         sendEmptyMessage(MSG_LOAD_ICONS);
                     } else {
                         sendEmptyMessage(MSG_LOAD_SIZES);
                     }
                 } break;
                 case MSG_LOAD_SIZES: {
+                    boolean allSizesComputed = false;
                     synchronized (mEntriesMap) {
                         if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES acquired lock");
-                        if (mCurComputingSizePkg != null) {
+                        if (mComputingSizes.size() >= MAX_SIZE_REQUESTS) {
                             if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing: currently computing");
                             return;
                         }
 
                         long now = SystemClock.uptimeMillis();
-                        for (int i=0; i<mAppEntries.size(); i++) {
+                        boolean computing = false;
+                        for (int i=0; i<mAppEntries.size()
+                                && mComputingSizes.size()<MAX_SIZE_REQUESTS; i++) {
                             AppEntry entry = mAppEntries.get(i);
                             if (entry.size == SIZE_UNKNOWN || entry.sizeStale) {
+                                computing = true;
                                 if (entry.sizeLoadStart == 0 ||
                                         (entry.sizeLoadStart < (now-20*1000))) {
                                     if (!mRunning) {
@@ -931,33 +1163,74 @@ public class ApplicationsState {
                                         mMainHandler.sendMessage(m);
                                     }
                                     entry.sizeLoadStart = now;
-                                    mCurComputingSizePkg = entry.info.packageName;
-                                    mCurComputingSizeUserId = UserHandle.getUserId(entry.info.uid);
-                                    mPm.getPackageSizeInfoAsUser(mCurComputingSizePkg,
-                                            mCurComputingSizeUserId, mStatsObserver);
+                                    String packageName = entry.info.packageName;
+                                    int userId = UserHandle.getUserId(entry.info.uid);
+                                    mComputingSizes.add(getSizeKey(packageName, userId));
+                                    mPm.getPackageSizeInfoAsUser(packageName, userId,
+                                            mStatsObserver);
                                 }
-                                if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing: now computing");
-                                return;
                             }
                         }
+                        if (computing) {
+                            if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing: now computing");
+                            return;
+                        }
                         if (!mMainHandler.hasMessages(MainHandler.MSG_ALL_SIZES_COMPUTED)) {
                             mMainHandler.sendEmptyMessage(MainHandler.MSG_ALL_SIZES_COMPUTED);
                             mRunning = false;
                             Message m = mMainHandler.obtainMessage(
                                     MainHandler.MSG_RUNNING_STATE_CHANGED, 0);
                             mMainHandler.sendMessage(m);
+                            allSizesComputed = true;
                         }
                         if (DEBUG_LOCKING) Log.v(TAG, "MSG_LOAD_SIZES releasing lock");
                     }
+                    if (allSizesComputed) {
+                        saveEntryCache();
+                    }
                 } break;
             }
         }
 
+        private HashMap<ApplicationInfo, String> loadLabels(ArrayList<ApplicationInfo> infos,
+                final String locales) {
+            final HashMap<ApplicationInfo, String> labels = new HashMap<ApplicationInfo, String>();
+            final ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int i = 0; i < infos.size(); i++) {
+                final ApplicationInfo info = infos.get(i);
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        long apkModified = new File(info.sourceDir).lastModified();
+                        if (apkModified == 0) {
+                            // Not mounted, the entry falls back to the package name.
+                            return null;
+                        }
+                        String label = mEntryCache.getLabel(UserHandle.getUserId(info.uid),
+                                info.packageName, apkModified, locales);
+                        if (label == null) {
+                            CharSequence loaded = info.loadLabel(mPm);
+                            label = loaded != null ? loaded.toString() : info.packageName;
+                        }
+                        synchronized (labels) {
+                            labels.put(info, label);
+                        }
+                        return null;
+                    }
+                });
+            }
+            runOnLoaderPool(tasks);
+            return labels;
+        }
+
         final IPackageStatsObserver.Stub mStatsObserver = new IPackageStatsObserver.Stub() {
             public void onGetStatsCompleted(PackageStats stats, boolean succeeded) {
                 boolean sizeChanged = false;
                 synchronized (mEntriesMap) {
                     if (DEBUG_LOCKING) Log.v(TAG, "onGetStatsCompleted acquired lock");
+                    if (mComputingSizes.remove(getSizeKey(stats.packageName, stats.userHandle))) {
+                        sendEmptyMessage(MSG_LOAD_SIZES);
+                    }
                     HashMap<String, AppEntry> userMap = mEntriesMap.get(stats.userHandle);
                     if (userMap == null) {
                         // The user must have been removed.
@@ -1004,12 +1277,6 @@ public class ApplicationsState {
                             mMainHandler.sendMessage(msg);
                         }
                     }
-                    if (mCurComputingSizePkg != null
-                            && (mCurComputingSizePkg.equals(stats.packageName)
-                            && mCurComputingSizeUserId == stats.userHandle)) {
-                        mCurComputingSizePkg = null;
-                        sendEmptyMessage(MSG_LOAD_SIZES);
-                    }
                     if (DEBUG_LOCKING) Log.v(TAG, "onGetStatsCompleted releasing lock");
                 }
             }
@@ -1135,6 +1402,22 @@ public class ApplicationsState {
          */
         public boolean hasLauncherEntry;
 
+        // The collation key of the label, comparing those is a lot cheaper than collating the
+        // labels themselves.
+        private CollationKey labelKey;
+
+        CollationKey getLabelKey() {
+            final String label = this.label != null ? this.label : "";
+            CollationKey key = labelKey;
+            if (key == null || !key.getSourceString().equals(label)) {
+                synchronized (sLabelCollator) {
+                    key = sLabelCollator.getCollationKey(label);
+                }
+                labelKey = key;
+            }
+            return key;
+        }
+
         public String getNormalizedLabel() {
             if (normalizedLabel != null) {
                 return normalizedLabel;
@@ -1158,12 +1441,24 @@ public class ApplicationsState {
         public Object extraInfo;
 
         AppEntry(Context context, ApplicationInfo info, long id) {
+            this(context, info, id, null);
+        }
+
+        /**
+         * @param label the label of the app if it was already loaded from its apk, or null
+         */
+        AppEntry(Context context, ApplicationInfo info, long id, String label) {
             apkFile = new File(info.sourceDir);
             this.id = id;
             this.info = info;
             this.size = SIZE_UNKNOWN;
             this.sizeStale = true;
-            ensureLabel(context);
+            if (label != null) {
+                this.mounted = true;
+                this.label = label;
+            } else {
+                ensureLabel(context);
+            }
         }
 
         public void ensureLabel(Context context) {
@@ -1223,13 +1518,15 @@ public class ApplicationsState {
         private final Collator sCollator = Collator.getInstance();
         @Override
         public int compare(AppEntry object1, AppEntry object2) {
-            int compareResult = sCollator.compare(object1.label, object2.label);
+            int compareResult = object1.getLabelKey().compareTo(object2.getLabelKey());
             if (compareResult != 0) {
                 return compareResult;
             }
             if (object1.info != null && object2.info != null) {
-                compareResult =
-                    sCollator.compare(object1.info.packageName, object2.info.packageName);
+                synchronized (sCollator) {
+                    compareResult =
+                        sCollator.compare(object1.info.packageName, object2.info.packageName);
+                }
                 if (compareResult != 0) {
                     return compareResult;
                 }
@@ -36,12 +36,14 @@ import android.os.UserHandle;
 import android.os.UserManager;
 import android.os.storage.StorageVolume;
 import android.os.storage.VolumeInfo;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.util.SparseArray;
 import android.util.SparseLongArray;
 
 import com.android.internal.app.IMediaContainerService;
 import com.android.internal.util.ArrayUtils;
+import com.android.settingslib.BackgroundThreadPool;
 import com.google.android.collect.Sets;
 
 import java.io.File;
@@ -51,6 +53,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * Utility for measuring the disk usage of internal storage or a physical
@@ -76,6 +80,24 @@ public class StorageMeasurement {
             Environment.DIRECTORY_RINGTONES, Environment.DIRECTORY_PODCASTS,
             Environment.DIRECTORY_DOWNLOADS, Environment.DIRECTORY_ANDROID);
 
+    private static final int MEASURE_THREADS = 4;
+
+    private static class DirectorySize {
+        final long lastModified;
+        final long size;
+
+        DirectorySize(long lastModified, long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Last measured sizes of media directories by path, shown while the directories are
+     * measured again as long as they weren't modified.
+     */
+    private static final ArrayMap<String, DirectorySize> sDirectorySizes = new ArrayMap<>();
+
     public static class MeasurementDetails {
         public long totalSize;
         public long availSize;
@@ -141,6 +163,8 @@ public class StorageMeasurement {
 
     private final MainHandler mMainHandler;
     private final MeasurementHandler mMeasurementHandler;
+    private final ThreadPoolExecutor mMeasurePool;
+    private volatile boolean mDestroyed;
 
     public StorageMeasurement(Context context, VolumeInfo volume, VolumeInfo sharedVolume) {
         mContext = context.getApplicationContext();
@@ -154,6 +178,9 @@ public class StorageMeasurement {
 
         mMainHandler = new MainHandler();
         mMeasurementHandler = new MeasurementHandler(handlerThread.getLooper());
+
+        // Directories are measured concurrently on this pool.
+        mMeasurePool = BackgroundThreadPool.create("MemoryMeasurement", MEASURE_THREADS);
     }
 
     public void setReceiver(MeasurementReceiver receiver) {
@@ -175,6 +202,7 @@ public class StorageMeasurement {
 
     public void onDestroy() {
         mReceiver = null;
+        mDestroyed = true;
         mMeasurementHandler.removeMessages(MeasurementHandler.MSG_MEASURE);
         mMeasurementHandler.sendEmptyMessage(MeasurementHandler.MSG_DISCONNECT);
     }
@@ -252,6 +280,9 @@ public class StorageMeasurement {
     }
 
     private class MainHandler extends Handler {
+        static final int MSG_DETAILS = 0;
+        static final int MSG_PARTIAL_DETAILS = 1;
+
         @Override
         public void handleMessage(Message msg) {
             final MeasurementDetails details = (MeasurementDetails) msg.obj;
@@ -303,7 +334,8 @@ public class StorageMeasurement {
             switch (msg.what) {
                 case MSG_MEASURE: {
                     if (mCached != null) {
-                        mMainHandler.obtainMessage(0, mCached).sendToTarget();
+                        mMainHandler.obtainMessage(MainHandler.MSG_DETAILS, mCached)
+                                .sendToTarget();
                         break;
                     }
 
@@ -331,11 +363,13 @@ public class StorageMeasurement {
                             mContext.unbindService(mDefContainerConn);
                         }
                     }
+                    mMeasurePool.shutdown();
                     break;
                 }
                 case MSG_COMPLETED: {
                     mCached = (MeasurementDetails) msg.obj;
-                    mMainHandler.obtainMessage(0, mCached).sendToTarget();
+                    mMainHandler.removeMessages(MainHandler.MSG_PARTIAL_DETAILS);
+                    mMainHandler.obtainMessage(MainHandler.MSG_DETAILS, mCached).sendToTarget();
                     break;
                 }
                 case MSG_INVALIDATE: {
@@ -346,7 +380,10 @@ public class StorageMeasurement {
         }
     }
 
-    private void measureExactStorage(IMediaContainerService imcs) {
+    private void measureExactStorage(final IMediaContainerService imcs) {
+        if (mDestroyed) {
+            return;
+        }
         final UserManager userManager = mContext.getSystemService(UserManager.class);
         final PackageManager packageManager = mContext.getPackageManager();
 
@@ -363,40 +400,88 @@ public class StorageMeasurement {
             return;
         }
 
+        final File file = mVolume.getPath();
+        if (file != null) {
+            details.totalSize = file.getTotalSpace();
+            details.availSize = file.getFreeSpace();
+        }
+
         if (mSharedVolume != null && mSharedVolume.isMountedReadable()) {
+            // All directories are measured concurrently, and the details measured so far are
+            // shown whenever one of them is done.  Until then, media directories which weren't
+            // modified since they were last measured show their last size.
+            final SparseArray<HashMap<String, Long>> lastMediaSizes = new SparseArray<>();
+            final ArrayList<MeasureTask> tasks = new ArrayList<>();
             for (UserInfo currentUserInfo : currentProfiles) {
                 final int userId = currentUserInfo.id;
                 final File basePath = mSharedVolume.getPathForUser(userId);
-                HashMap<String, Long> mediaMap = new HashMap<>(sMeasureMediaTypes.size());
+                final HashMap<String, Long> mediaMap = new HashMap<>(sMeasureMediaTypes.size());
+                final HashMap<String, Long> lastMediaMap = new HashMap<>();
                 details.mediaSize.put(userId, mediaMap);
+                lastMediaSizes.put(userId, lastMediaMap);
 
                 // Measure media types for emulated storage, or for primary physical
                 // external volume
-                for (String type : sMeasureMediaTypes) {
+                for (final String type : sMeasureMediaTypes) {
                     final File path = new File(basePath, type);
-                    final long size = getDirectorySize(imcs, path);
-                    mediaMap.put(type, size);
+                    final DirectorySize lastSize = getLastDirectorySize(path);
+                    if (lastSize != null) {
+                        lastMediaMap.put(type, lastSize.size);
+                    }
+                    tasks.add(new MeasureTask() {
+                        @Override
+                        void measure() {
+                            final long lastModified = path.lastModified();
+                            final long size = getDirectorySize(imcs, path);
+                            putLastDirectorySize(path, new DirectorySize(lastModified, size));
+                            synchronized (details) {
+                                mediaMap.put(type, size);
+                            }
+                            postPartialDetails(details, lastMediaSizes);
+                        }
+                    });
                 }
 
                 // Measure misc files not counted under media
-                addValue(details.miscSize, userId, measureMisc(imcs, basePath));
+                tasks.add(new MeasureTask() {
+                    @Override
+                    void measure() {
+                        final long size = measureMisc(imcs, basePath);
+                        synchronized (details) {
+                            addValue(details.miscSize, userId, size);
+                        }
+                        postPartialDetails(details, lastMediaSizes);
+                    }
+                });
             }
 
             if (mSharedVolume.getType() == VolumeInfo.TYPE_EMULATED) {
                 // Measure total emulated storage of all users; internal apps data
                 // will be spliced in later
                 for (UserInfo user : users) {
-                    final File userPath = mSharedVolume.getPathForUser(user.id);
-                    final long size = getDirectorySize(imcs, userPath);
-                    addValue(details.usersSize, user.id, size);
+                    final int userId = user.id;
+                    final File userPath = mSharedVolume.getPathForUser(userId);
+                    tasks.add(new MeasureTask() {
+                        @Override
+                        void measure() {
+                            final long size = getDirectorySize(imcs, userPath);
+                            synchronized (details) {
+                                addValue(details.usersSize, userId, size);
+                            }
+                        }
+                    });
                 }
             }
-        }
 
-        final File file = mVolume.getPath();
-        if (file != null) {
-            details.totalSize = file.getTotalSpace();
-            details.availSize = file.getFreeSpace();
+            postPartialDetails(details, lastMediaSizes);
+            try {
+                mMeasurePool.invokeAll(tasks);
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while measuring", e);
+            }
+            if (mDestroyed) {
+                return;
+            }
         }
 
         // Measure all apps hosted on this volume for all users
@@ -432,6 +517,48 @@ public class StorageMeasurement {
         }
     }
 
+    /**
+     * Sends a copy of the details measured so far to the receiver, with the last sizes of media
+     * directories which weren't measured yet filled in.
+     */
+    private void postPartialDetails(MeasurementDetails details,
+            SparseArray<HashMap<String, Long>> lastMediaSizes) {
+        final MeasurementDetails partial = new MeasurementDetails();
+        synchronized (details) {
+            partial.totalSize = details.totalSize;
+            partial.availSize = details.availSize;
+            partial.cacheSize = details.cacheSize;
+            partial.appsSize = details.appsSize.clone();
+            partial.miscSize = details.miscSize.clone();
+            partial.usersSize = details.usersSize.clone();
+            for (int i = 0; i < details.mediaSize.size(); i++) {
+                final int userId = details.mediaSize.keyAt(i);
+                final HashMap<String, Long> mediaMap = new HashMap<>(lastMediaSizes.get(userId));
+                mediaMap.putAll(details.mediaSize.valueAt(i));
+                partial.mediaSize.put(userId, mediaMap);
+            }
+        }
+        mMainHandler.removeMessages(MainHandler.MSG_PARTIAL_DETAILS);
+        mMainHandler.obtainMessage(MainHandler.MSG_PARTIAL_DETAILS, partial).sendToTarget();
+    }
+
+    private static DirectorySize getLastDirectorySize(File path) {
+        final DirectorySize lastSize;
+        synchronized (sDirectorySizes) {
+            lastSize = sDirectorySizes.get(path.getPath());
+        }
+        if (lastSize == null || lastSize.lastModified != path.lastModified()) {
+            return null;
+        }
+        return lastSize;
+    }
+
+    private static void putLastDirectorySize(File path, DirectorySize size) {
+        synchronized (sDirectorySizes) {
+            sDirectorySizes.put(path.getPath(), size);
+        }
+    }
+
     private static long getDirectorySize(IMediaContainerService imcs, File path) {
         try {
             final long size = imcs.calculateDirectorySize(path.toString());
@@ -474,4 +601,19 @@ public class StorageMeasurement {
             array.put(key, array.valueAt(index) + value);
         }
     }
+
+    /**
+     * Measures a directory on the pool, unless the measurement was destroyed in the meantime.
+     */
+    private abstract class MeasureTask implements Callable<Void> {
+        abstract void measure();
+
+        @Override
+        public Void call() {
+            if (!mDestroyed) {
+                measure();
+            }
+            return null;
+        }
+    }
 }
@@ -16,6 +16,7 @@
 
 package com.android.settingslib.net;
 
+import android.app.ActivityManager;
 import android.app.AppGlobals;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
@@ -25,27 +26,56 @@ import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.UserInfo;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.ConnectivityManager;
 import android.net.TrafficStats;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.UserManager;
 import android.os.UserHandle;
 import android.os.RemoteException;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.SparseArray;
 
+import com.android.settingslib.BackgroundThreadPool;
 import com.android.settingslib.R;
 import com.android.settingslib.Utils;
 
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Return details about a specific UID, handling special cases like
  * {@link TrafficStats#UID_TETHERING} and {@link UserInfo}.
  */
 public class UidDetailProvider {
     private static final String TAG = "DataUsage";
+
+    // The cache may take up this fraction of the memory class of the app.
+    private static final int CACHE_MEMORY_FRACTION = 16;
+    // What a detail without an icon of known size is assumed to cost.
+    private static final int MIN_DETAIL_BYTES = 1024;
+
+    private static final int RESOLVER_THREADS = 3;
+
+    /**
+     * Receives the details of a batch of UIDs, see {@link #getUidDetails}.
+     */
+    public interface Callback {
+        /**
+         * Called on the main thread once the details of all requested UIDs are resolved.
+         */
+        void onUidDetailsResolved(SparseArray<UidDetail> details);
+    }
+
     private final Context mContext;
-    private final SparseArray<UidDetail> mUidDetailCache;
+    private final LruCache<Integer, UidDetail> mUidDetailCache;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private ThreadPoolExecutor mResolver;
 
     public static final int OTHER_USER_RANGE_START = -2000;
 
@@ -63,24 +93,25 @@ public class UidDetailProvider {
 
     public UidDetailProvider(Context context) {
         mContext = context.getApplicationContext();
-        mUidDetailCache = new SparseArray<UidDetail>();
+        final ActivityManager am = mContext.getSystemService(ActivityManager.class);
+        final int maxBytes = am.getMemoryClass() * 1024 * 1024 / CACHE_MEMORY_FRACTION;
+        mUidDetailCache = new LruCache<Integer, UidDetail>(maxBytes) {
+            @Override
+            protected int sizeOf(Integer uid, UidDetail detail) {
+                return getByteCount(detail);
+            }
+        };
     }
 
     public void clearCache() {
-        synchronized (mUidDetailCache) {
-            mUidDetailCache.clear();
-        }
+        mUidDetailCache.evictAll();
     }
 
     /**
      * Resolve best descriptive label for the given UID.
      */
     public UidDetail getUidDetail(int uid, boolean blocking) {
-        UidDetail detail;
-
-        synchronized (mUidDetailCache) {
-            detail = mUidDetailCache.get(uid);
-        }
+        UidDetail detail = mUidDetailCache.get(uid);
 
         if (detail != null) {
             return detail;
@@ -89,12 +120,97 @@ public class UidDetailProvider {
         }
 
         detail = buildUidDetail(uid);
+        mUidDetailCache.put(uid, detail);
+
+        return detail;
+    }
 
-        synchronized (mUidDetailCache) {
-            mUidDetailCache.put(uid, detail);
+    /**
+     * Resolve the details of many UIDs at once.  The ones which aren't cached are resolved on
+     * a background pool, and all of them are delivered to the callback together.
+     */
+    public void getUidDetails(int[] uids, final Callback callback) {
+        final SparseArray<UidDetail> details = new SparseArray<UidDetail>(uids.length);
+        final SparseArray<UidDetail> resolved = new SparseArray<UidDetail>();
+        for (int uid : uids) {
+            final UidDetail detail = mUidDetailCache.get(uid);
+            if (detail != null) {
+                details.put(uid, detail);
+            } else if (resolved.indexOfKey(uid) < 0) {
+                resolved.put(uid, null);
+            }
         }
 
-        return detail;
+        final Runnable deliver = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (resolved) {
+                    for (int i = 0; i < resolved.size(); i++) {
+                        if (resolved.valueAt(i) != null) {
+                            details.put(resolved.keyAt(i), resolved.valueAt(i));
+                        }
+                    }
+                }
+                callback.onUidDetailsResolved(details);
+            }
+        };
+        final int N = resolved.size();
+        if (N == 0) {
+            mMainHandler.post(deliver);
+            return;
+        }
+
+        final AtomicInteger pending = new AtomicInteger(N);
+        final ThreadPoolExecutor resolver = getResolver();
+        for (int i = 0; i < N; i++) {
+            final int uid = resolved.keyAt(i);
+            resolver.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final UidDetail detail = buildUidDetail(uid);
+                        mUidDetailCache.put(uid, detail);
+                        synchronized (resolved) {
+                            resolved.put(uid, detail);
+                        }
+                    } catch (RuntimeException e) {
+                        // Leave it out, but deliver the others.
+                        Log.w(TAG, "Failed to resolve uid " + uid, e);
+                    } finally {
+                        if (pending.decrementAndGet() == 0) {
+                            mMainHandler.post(deliver);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private synchronized ThreadPoolExecutor getResolver() {
+        if (mResolver == null) {
+            mResolver = BackgroundThreadPool.create("UidDetailProvider", RESOLVER_THREADS);
+        }
+        return mResolver;
+    }
+
+    /**
+     * Estimate how many bytes a detail holds on to, which is mostly its icon.
+     */
+    static int getByteCount(UidDetail detail) {
+        final Drawable icon = detail.icon;
+        if (icon instanceof BitmapDrawable) {
+            final Bitmap bitmap = ((BitmapDrawable) icon).getBitmap();
+            if (bitmap != null) {
+                return Math.max(bitmap.getAllocationByteCount(), MIN_DETAIL_BYTES);
+            }
+        } else if (icon != null) {
+            final int width = icon.getIntrinsicWidth();
+            final int height = icon.getIntrinsicHeight();
+            if (width > 0 && height > 0) {
+                return Math.max(width * height * 4, MIN_DETAIL_BYTES);
+            }
+        }
+        return MIN_DETAIL_BYTES;
     }
 
     /**
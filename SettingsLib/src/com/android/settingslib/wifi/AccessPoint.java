@@ -119,8 +119,13 @@ public class AccessPoint implements Comparable<AccessPoint> {
     private WifiConfiguration mConfig;
 
     private int mRssi = Integer.MAX_VALUE;
+    // The signal level of mRssi, kept up to date so sorting doesn't need to calculate it.
+    private int mRssiLevel = WifiManager.calculateSignalLevel(Integer.MAX_VALUE, SIGNAL_LEVELS);
     private long mSeen = 0;
 
+    // Whether anything shown about this access point changed since WifiTracker last checked.
+    private boolean mChanged = true;
+
     private WifiInfo mInfo;
     private NetworkInfo mNetworkInfo;
     private AccessPointListener mAccessPointListener;
@@ -155,7 +160,7 @@ public class AccessPoint implements Comparable<AccessPoint> {
             }
         }
         update(mConfig, mInfo, mNetworkInfo);
-        mRssi = getRssi();
+        setRssi(getRssi());
         mSeen = getSeen();
     }
 
@@ -186,8 +191,7 @@ public class AccessPoint implements Comparable<AccessPoint> {
                 && other.networkId != WifiConfiguration.INVALID_NETWORK_ID) return 1;
 
         // Sort by signal strength, bucketed by level
-        int difference = WifiManager.calculateSignalLevel(other.mRssi, SIGNAL_LEVELS)
-                - WifiManager.calculateSignalLevel(mRssi, SIGNAL_LEVELS);
+        int difference = other.mRssiLevel - mRssiLevel;
         if (difference != 0) {
             return difference;
         }
@@ -264,7 +268,7 @@ public class AccessPoint implements Comparable<AccessPoint> {
         if (mRssi == Integer.MAX_VALUE) {
             return -1;
         }
-        return WifiManager.calculateSignalLevel(mRssi, SIGNAL_LEVELS);
+        return mRssiLevel;
     }
 
     public int getRssi() {
@@ -674,7 +678,7 @@ public class AccessPoint implements Comparable<AccessPoint> {
         security = getSecurity(result);
         if (security == SECURITY_PSK)
             pskType = getPskType(result);
-        mRssi = result.level;
+        setRssi(result.level);
         mSeen = result.timestamp;
     }
 
@@ -706,7 +710,7 @@ public class AccessPoint implements Comparable<AccessPoint> {
             int oldLevel = getLevel();
             int oldRssi = getRssi();
             mSeen = getSeen();
-            mRssi = (getRssi() + oldRssi)/2;
+            setRssi((getRssi() + oldRssi)/2);
             int newLevel = getLevel();
 
             if (newLevel > 0 && newLevel != oldLevel && mAccessPointListener != null) {
@@ -714,7 +718,11 @@ public class AccessPoint implements Comparable<AccessPoint> {
             }
             // This flag only comes from scans, is not easily saved in config
             if (security == SECURITY_PSK) {
-                pskType = getPskType(result);
+                int newPskType = getPskType(result);
+                if (newPskType != pskType) {
+                    pskType = newPskType;
+                    mChanged = true;
+                }
             }
 
             if (mAccessPointListener != null) {
@@ -730,7 +738,11 @@ public class AccessPoint implements Comparable<AccessPoint> {
         boolean reorder = false;
         if (info != null && isInfoForThisAccessPoint(config, info)) {
             reorder = (mInfo == null);
-            mRssi = info.getRssi();
+            if (mInfo == null || mNetworkInfo == null || networkInfo == null
+                    || mNetworkInfo.getDetailedState() != networkInfo.getDetailedState()) {
+                mChanged = true;
+            }
+            setRssi(info.getRssi());
             mInfo = info;
             mNetworkInfo = networkInfo;
             if (mAccessPointListener != null) {
@@ -738,6 +750,7 @@ public class AccessPoint implements Comparable<AccessPoint> {
             }
         } else if (mInfo != null) {
             reorder = true;
+            mChanged = true;
             mInfo = null;
             mNetworkInfo = null;
             if (mAccessPointListener != null) {
@@ -748,6 +761,9 @@ public class AccessPoint implements Comparable<AccessPoint> {
     }
 
     void update(WifiConfiguration config) {
+        if (networkId != config.networkId) {
+            mChanged = true;
+        }
         mConfig = config;
         networkId = config.networkId;
         if (mAccessPointListener != null) {
@@ -756,7 +772,44 @@ public class AccessPoint implements Comparable<AccessPoint> {
     }
 
     void setRssi(int rssi) {
+        if (rssi == mRssi) {
+            return;
+        }
+        final int oldLevel = getLevel();
         mRssi = rssi;
+        mRssiLevel = WifiManager.calculateSignalLevel(rssi, SIGNAL_LEVELS);
+        if (getLevel() != oldLevel) {
+            mChanged = true;
+        }
+    }
+
+    /**
+     * Returns whether the level, security or connection state of this access point changed
+     * since the last call.  Changes of its configuration are not tracked.
+     */
+    boolean consumeChanged() {
+        final boolean changed = mChanged;
+        mChanged = false;
+        return changed;
+    }
+
+    /**
+     * Returns the key matching access points are looked up by, see {@link #matches}.
+     */
+    String getKey() {
+        return getKey(ssid, security);
+    }
+
+    static String getKey(ScanResult result) {
+        return getKey(result.SSID, getSecurity(result));
+    }
+
+    static String getKey(WifiConfiguration config) {
+        return getKey(removeDoubleQuotes(config.SSID), getSecurity(config));
+    }
+
+    private static String getKey(String ssid, int security) {
+        return security + "," + ssid;
     }
 
     public static String getSummary(Context context, String ssid, DetailedState state,
@@ -43,6 +43,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -90,6 +91,10 @@ public class WifiTracker {
     private NetworkInfo mLastNetworkInfo;
     private WifiInfo mLastInfo;
 
+    // Whether the listener needs to be told about the next update of the access points even if
+    // the access points didn't change, as their configurations might have.
+    private boolean mNotifyNextUpdate = true;
+
     @VisibleForTesting
     Scanner mScanner;
 
@@ -160,6 +165,7 @@ public class WifiTracker {
      * Forces an update of the wifi networks when not scanning.
      */
     public void forceUpdate() {
+        mNotifyNextUpdate = true;
         updateAccessPoints();
     }
 
@@ -222,6 +228,7 @@ public class WifiTracker {
     public void stopTracking() {
         if (mRegistered) {
             mWorkHandler.removeMessages(WorkHandler.MSG_UPDATE_ACCESS_POINTS);
+            mWorkHandler.removeMessages(WorkHandler.MSG_UPDATE_CONFIGURED_NETWORKS);
             mWorkHandler.removeMessages(WorkHandler.MSG_UPDATE_NETWORK_INFO);
             mContext.unregisterReceiver(mReceiver);
             mConnectivityManager.unregisterNetworkCallback(mNetworkCallback);
@@ -270,6 +277,7 @@ public class WifiTracker {
         mScanResultCache.clear();
         mSeenBssids.clear();
         mScanId = 0;
+        mNotifyNextUpdate = true;
     }
 
     private Collection<ScanResult> fetchScanResults() {
@@ -316,17 +324,20 @@ public class WifiTracker {
     }
 
     private void updateAccessPoints() {
-        // Swap the current access points into a cached list.
-        List<AccessPoint> cachedAccessPoints = getAccessPoints();
+        // Swap the current access points into a cache, where they are looked up by their ssid
+        // and security.
+        List<AccessPoint> previousAccessPoints = getAccessPoints();
+        Multimap<String, AccessPoint> cachedAccessPoints = new Multimap<String, AccessPoint>();
         ArrayList<AccessPoint> accessPoints = new ArrayList<>();
 
         // Clear out the configs so we don't think something is saved when it isn't.
-        for (AccessPoint accessPoint : cachedAccessPoints) {
+        for (AccessPoint accessPoint : previousAccessPoints) {
             accessPoint.clearConfig();
+            cachedAccessPoints.put(accessPoint.getKey(), accessPoint);
         }
 
         /** Lookup table to more quickly update AccessPoints by only considering objects with the
-         * correct SSID.  Maps SSID -> List of AccessPoints with the given SSID.  */
+         * correct SSID and security.  Maps key -> List of AccessPoints with the given key.  */
         Multimap<String, AccessPoint> apMap = new Multimap<String, AccessPoint>();
         WifiConfiguration connectionConfig = null;
         if (mLastInfo != null) {
@@ -334,6 +345,10 @@ public class WifiTracker {
         }
 
         final Collection<ScanResult> results = fetchScanResults();
+        final HashSet<String> scannedSsids = new HashSet<>();
+        for (ScanResult result : results) {
+            scannedSsids.add(result.SSID);
+        }
 
         final List<WifiConfiguration> configs = mWifiManager.getConfiguredNetworks();
         if (configs != null) {
@@ -351,26 +366,19 @@ public class WifiTracker {
                 if (mIncludeSaved) {
                     if (!config.isPasspoint() || mIncludePasspoints) {
                         // If saved network not present in scan result then set its Rssi to MAX_VALUE
-                        boolean apFound = false;
-                        for (ScanResult result : results) {
-                            if (result.SSID.equals(accessPoint.getSsidStr())) {
-                                apFound = true;
-                                break;
-                            }
-                        }
-                        if (!apFound) {
+                        if (!scannedSsids.contains(accessPoint.getSsidStr())) {
                             accessPoint.setRssi(Integer.MAX_VALUE);
                         }
                         accessPoints.add(accessPoint);
                     }
 
                     if (config.isPasspoint() == false) {
-                        apMap.put(accessPoint.getSsidStr(), accessPoint);
+                        apMap.put(accessPoint.getKey(), accessPoint);
                     }
                 } else {
                     // If we aren't using saved networks, drop them into the cache so that
                     // we have access to their saved info.
-                    cachedAccessPoints.add(accessPoint);
+                    cachedAccessPoints.put(accessPoint.getKey(), accessPoint);
                 }
             }
         }
@@ -383,8 +391,9 @@ public class WifiTracker {
                     continue;
                 }
 
+                final String key = AccessPoint.getKey(result);
                 boolean found = false;
-                for (AccessPoint accessPoint : apMap.getAll(result.SSID)) {
+                for (AccessPoint accessPoint : apMap.getAll(key)) {
                     if (accessPoint.update(result)) {
                         found = true;
                         break;
@@ -412,7 +421,7 @@ public class WifiTracker {
                     }
 
                     accessPoints.add(accessPoint);
-                    apMap.put(accessPoint.getSsidStr(), accessPoint);
+                    apMap.put(key, accessPoint);
                 }
             }
         }
@@ -420,32 +429,49 @@ public class WifiTracker {
         // Pre-sort accessPoints to speed preference insertion
         Collections.sort(accessPoints);
 
-        // Log accesspoints that were deleted
-        if (DBG) Log.d(TAG, "------ Dumping SSIDs that were not seen on this scan ------");
-        for (AccessPoint prevAccessPoint : mAccessPoints) {
-            if (prevAccessPoint.getSsid() == null) continue;
-            String prevSsid = prevAccessPoint.getSsidStr();
-            boolean found = false;
-            for (AccessPoint newAccessPoint : accessPoints) {
-                if (newAccessPoint.getSsid() != null && newAccessPoint.getSsid().equals(prevSsid)) {
-                    found = true;
-                    break;
+        if (DBG) {
+            // Log accesspoints that were deleted
+            Log.d(TAG, "------ Dumping SSIDs that were not seen on this scan ------");
+            for (AccessPoint prevAccessPoint : mAccessPoints) {
+                if (prevAccessPoint.getSsid() == null) continue;
+                String prevSsid = prevAccessPoint.getSsidStr();
+                boolean found = false;
+                for (AccessPoint newAccessPoint : accessPoints) {
+                    if (newAccessPoint.getSsid() != null
+                            && newAccessPoint.getSsid().equals(prevSsid)) {
+                        found = true;
+                        break;
+                    }
                 }
+                if (!found) Log.d(TAG, "Did not find " + prevSsid + " in this scan");
             }
-            if (!found)
-                if (DBG) Log.d(TAG, "Did not find " + prevSsid + " in this scan");
+            Log.d(TAG, "---- Done dumping SSIDs that were not seen on this scan ----");
         }
-        if (DBG)  Log.d(TAG, "---- Done dumping SSIDs that were not seen on this scan ----");
+
+        // Only tell the listener if an access point came, went, moved or changed what it shows.
+        boolean changed = mNotifyNextUpdate || accessPoints.size() != previousAccessPoints.size();
+        for (int i = 0; i < accessPoints.size(); i++) {
+            AccessPoint accessPoint = accessPoints.get(i);
+            if (accessPoint.consumeChanged()
+                    || (!changed && accessPoint != previousAccessPoints.get(i))) {
+                changed = true;
+            }
+        }
+        mNotifyNextUpdate = false;
 
         mAccessPoints = accessPoints;
-        mMainHandler.sendEmptyMessage(MainHandler.MSG_ACCESS_POINT_CHANGED);
+        if (changed) {
+            mMainHandler.sendEmptyMessage(MainHandler.MSG_ACCESS_POINT_CHANGED);
+        }
     }
 
-    private AccessPoint getCachedOrCreate(ScanResult result, List<AccessPoint> cache) {
-        final int N = cache.size();
+    private AccessPoint getCachedOrCreate(ScanResult result,
+            Multimap<String, AccessPoint> cache) {
+        final List<AccessPoint> cached = cache.getAll(AccessPoint.getKey(result));
+        final int N = cached.size();
         for (int i = 0; i < N; i++) {
-            if (cache.get(i).matches(result)) {
-                AccessPoint ret = cache.remove(i);
+            if (cached.get(i).matches(result)) {
+                AccessPoint ret = cached.remove(i);
                 ret.update(result);
                 return ret;
             }
@@ -453,11 +479,13 @@ public class WifiTracker {
         return new AccessPoint(mContext, result);
     }
 
-    private AccessPoint getCachedOrCreate(WifiConfiguration config, List<AccessPoint> cache) {
-        final int N = cache.size();
+    private AccessPoint getCachedOrCreate(WifiConfiguration config,
+            Multimap<String, AccessPoint> cache) {
+        final List<AccessPoint> cached = cache.getAll(AccessPoint.getKey(config));
+        final int N = cached.size();
         for (int i = 0; i < N; i++) {
-            if (cache.get(i).matches(config)) {
-                AccessPoint ret = cache.remove(i);
+            if (cached.get(i).matches(config)) {
+                AccessPoint ret = cached.remove(i);
                 ret.loadConfig(config);
                 return ret;
             }
@@ -523,10 +551,11 @@ public class WifiTracker {
             if (WifiManager.WIFI_STATE_CHANGED_ACTION.equals(action)) {
                 updateWifiState(intent.getIntExtra(WifiManager.EXTRA_WIFI_STATE,
                         WifiManager.WIFI_STATE_UNKNOWN));
-            } else if (WifiManager.SCAN_RESULTS_AVAILABLE_ACTION.equals(action) ||
-                    WifiManager.CONFIGURED_NETWORKS_CHANGED_ACTION.equals(action) ||
-                    WifiManager.LINK_CONFIGURATION_CHANGED_ACTION.equals(action)) {
+            } else if (WifiManager.SCAN_RESULTS_AVAILABLE_ACTION.equals(action)) {
                 mWorkHandler.sendEmptyMessage(WorkHandler.MSG_UPDATE_ACCESS_POINTS);
+            } else if (WifiManager.CONFIGURED_NETWORKS_CHANGED_ACTION.equals(action) ||
+                    WifiManager.LINK_CONFIGURATION_CHANGED_ACTION.equals(action)) {
+                mWorkHandler.sendEmptyMessage(WorkHandler.MSG_UPDATE_CONFIGURED_NETWORKS);
             } else if (WifiManager.NETWORK_STATE_CHANGED_ACTION.equals(action)) {
                 NetworkInfo info = (NetworkInfo) intent.getParcelableExtra(
                         WifiManager.EXTRA_NETWORK_INFO);
@@ -597,6 +626,7 @@ public class WifiTracker {
         private static final int MSG_UPDATE_NETWORK_INFO = 1;
         private static final int MSG_RESUME = 2;
         private static final int MSG_UPDATE_WIFI_STATE = 3;
+        private static final int MSG_UPDATE_CONFIGURED_NETWORKS = 4;
 
         public WorkHandler(Looper looper) {
             super(looper);
@@ -608,6 +638,10 @@ public class WifiTracker {
                 case MSG_UPDATE_ACCESS_POINTS:
                     updateAccessPoints();
                     break;
+                case MSG_UPDATE_CONFIGURED_NETWORKS:
+                    mNotifyNextUpdate = true;
+                    updateAccessPoints();
+                    break;
                 case MSG_UPDATE_NETWORK_INFO:
                     updateNetworkInfo((NetworkInfo) msg.obj);
                     break;
@@ -624,6 +658,7 @@ public class WifiTracker {
                     } else {
                         mLastInfo = null;
                         mLastNetworkInfo = null;
+                        mNotifyNextUpdate = true;
                         if (mScanner != null) {
                             mScanner.pause();
                         }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.settingslib.applications;
+
+import android.content.pm.ApplicationInfo;
+import android.os.UserHandle;
+
+import com.android.settingslib.BaseTest;
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+
+public class AppEntryCacheTest extends BaseTest {
+
+    private static final String TEST_PACKAGE = "com.android.settingslib.test.app";
+    private static final String TEST_LABEL = "Test app";
+    private static final String TEST_LOCALES = "en-US";
+    private static final int TEST_USER = 10;
+
+    private File mCacheFile;
+    private File mApkFile;
+    private ArrayList<AppEntry> mAppEntries;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCacheFile = new File(mContext.getCacheDir(), "test_app_entries");
+        mCacheFile.delete();
+        mApkFile = new File(mContext.getCacheDir(), "test.apk");
+        new FileOutputStream(mApkFile).close();
+
+        ApplicationInfo info = new ApplicationInfo();
+        info.packageName = TEST_PACKAGE;
+        info.sourceDir = mApkFile.getPath();
+        info.uid = UserHandle.getUid(TEST_USER, 10123);
+        AppEntry entry = new AppEntry(mContext, info, 1, TEST_LABEL);
+        entry.size = 300;
+        entry.codeSize = 100;
+        entry.dataSize = 200;
+        mAppEntries = new ArrayList<AppEntry>();
+        mAppEntries.add(entry);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCacheFile.delete();
+        mApkFile.delete();
+        super.tearDown();
+    }
+
+    public void testWriteAndLoad() {
+        writeCache();
+
+        AppEntryCache cache = new AppEntryCache(mCacheFile);
+        cache.load();
+        long apkModified = mApkFile.lastModified();
+        assertEquals(TEST_LABEL,
+                cache.getLabel(TEST_USER, TEST_PACKAGE, apkModified, TEST_LOCALES));
+        AppEntryCache.CachedEntry cached = cache.get(TEST_USER, TEST_PACKAGE, apkModified);
+        assertNotNull(cached);
+        assertEquals(300, cached.size);
+        assertEquals(100, cached.codeSize);
+        assertEquals(200, cached.dataSize);
+        assertNull(cache.get(UserHandle.USER_SYSTEM, TEST_PACKAGE, apkModified));
+    }
+
+    public void testModifiedApkIsNotCached() {
+        writeCache();
+
+        AppEntryCache cache = new AppEntryCache(mCacheFile);
+        cache.load();
+        long apkModified = mApkFile.lastModified() + 1000;
+        assertNull(cache.get(TEST_USER, TEST_PACKAGE, apkModified));
+        assertNull(cache.getLabel(TEST_USER, TEST_PACKAGE, apkModified, TEST_LOCALES));
+    }
+
+    public void testLabelsAreDroppedWithOtherLocales() {
+        writeCache();
+
+        AppEntryCache cache = new AppEntryCache(mCacheFile);
+        cache.load();
+        long apkModified = mApkFile.lastModified();
+        assertNull(cache.getLabel(TEST_USER, TEST_PACKAGE, apkModified, "de-DE"));
+        assertNotNull(cache.get(TEST_USER, TEST_PACKAGE, apkModified));
+    }
+
+    public void testUnknownSizeIsNotCached() {
+        mAppEntries.get(0).size = ApplicationsState.SIZE_UNKNOWN;
+        writeCache();
+
+        AppEntryCache cache = new AppEntryCache(mCacheFile);
+        cache.load();
+        AppEntryCache.CachedEntry cached =
+                cache.get(TEST_USER, TEST_PACKAGE, mApkFile.lastModified());
+        assertNotNull(cached);
+        assertEquals(ApplicationsState.SIZE_UNKNOWN, cached.size);
+    }
+
+    private void writeCache() {
+        AppEntryCache cache = new AppEntryCache(mCacheFile);
+        cache.update(mAppEntries, TEST_LOCALES);
+        cache.write();
+    }
+}
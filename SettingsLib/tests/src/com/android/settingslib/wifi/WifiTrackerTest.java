@@ -244,6 +244,87 @@ public class WifiTrackerTest extends BaseTest {
         assertTrue("Connected to wifi", accessPoints.get(0).isActive());
     }
 
+    public void testUnchangedScanDoesNotNotify() {
+        List<WifiConfiguration> wifiConfigs = new ArrayList<WifiConfiguration>();
+        List<ScanResult> scanResults = new ArrayList<ScanResult>();
+        generateTestNetworks(wifiConfigs, scanResults, true);
+
+        Mockito.when(mWifiManager.getConfiguredNetworks()).thenReturn(wifiConfigs);
+        Mockito.when(mWifiManager.getScanResults()).thenReturn(scanResults);
+        mWifiTracker.forceUpdate();
+        List<AccessPoint> accessPoints = mWifiTracker.getAccessPoints();
+
+        // The same results again shouldn't change anything.
+        sendScanResultsAndProcess(false);
+
+        Mockito.verify(mWifiListener, Mockito.times(1)).onAccessPointsChanged();
+        List<AccessPoint> newAccessPoints = mWifiTracker.getAccessPoints();
+        assertEquals(accessPoints.size(), newAccessPoints.size());
+        for (int i = 0; i < accessPoints.size(); i++) {
+            assertSame(accessPoints.get(i), newAccessPoints.get(i));
+        }
+    }
+
+    public void testNewNetworkNotifies() {
+        List<WifiConfiguration> wifiConfigs = new ArrayList<WifiConfiguration>();
+        List<ScanResult> scanResults = new ArrayList<ScanResult>();
+        generateTestNetworks(wifiConfigs, scanResults, true);
+
+        Mockito.when(mWifiManager.getConfiguredNetworks()).thenReturn(wifiConfigs);
+        Mockito.when(mWifiManager.getScanResults()).thenReturn(scanResults);
+        mWifiTracker.forceUpdate();
+
+        // A network which wasn't seen before shows up.
+        List<ScanResult> newScanResults = new ArrayList<ScanResult>(scanResults);
+        addResult(newScanResults, "TEST_SSID_NEW", 3);
+        Mockito.when(mWifiManager.getScanResults()).thenReturn(newScanResults);
+        sendScanResultsAndProcess(false);
+
+        Mockito.verify(mWifiListener, Mockito.times(2)).onAccessPointsChanged();
+    }
+
+    public void testChangedLevelNotifies() {
+        List<WifiConfiguration> wifiConfigs = new ArrayList<WifiConfiguration>();
+        List<ScanResult> scanResults = new ArrayList<ScanResult>();
+        generateTestNetworks(wifiConfigs, scanResults, true);
+
+        Mockito.when(mWifiManager.getConfiguredNetworks()).thenReturn(wifiConfigs);
+        Mockito.when(mWifiManager.getScanResults()).thenReturn(scanResults);
+        mWifiTracker.forceUpdate();
+        AccessPoint accessPoint = findAccessPoint(TEST_SSIDS[2]);
+        assertEquals(3, accessPoint.getLevel());
+
+        // The signal of a known network drops into a lower level.
+        Mockito.when(mWifiManager.getScanResults())
+                .thenReturn(withRssi(scanResults, TEST_SSIDS[2], levelToRssi(0)));
+        sendScanResultsAndProcess(false);
+
+        Mockito.verify(mWifiListener, Mockito.times(2)).onAccessPointsChanged();
+        assertSame(accessPoint, findAccessPoint(TEST_SSIDS[2]));
+        assertEquals(0, accessPoint.getLevel());
+    }
+
+    public void testChangedRssiWithinLevelDoesNotNotify() {
+        List<WifiConfiguration> wifiConfigs = new ArrayList<WifiConfiguration>();
+        List<ScanResult> scanResults = new ArrayList<ScanResult>();
+        generateTestNetworks(wifiConfigs, scanResults, true);
+
+        Mockito.when(mWifiManager.getConfiguredNetworks()).thenReturn(wifiConfigs);
+        Mockito.when(mWifiManager.getScanResults()).thenReturn(scanResults);
+        mWifiTracker.forceUpdate();
+        AccessPoint accessPoint = findAccessPoint(TEST_SSIDS[2]);
+        int rssi = accessPoint.getRssi();
+
+        // The signal of a known network gets stronger, but stays in the same level.
+        Mockito.when(mWifiManager.getScanResults())
+                .thenReturn(withRssi(scanResults, TEST_SSIDS[2], levelToRssi(3) + 5));
+        sendScanResultsAndProcess(false);
+
+        Mockito.verify(mWifiListener, Mockito.times(1)).onAccessPointsChanged();
+        assertTrue("Rssi was updated", accessPoint.getRssi() != rssi);
+        assertEquals(3, accessPoint.getLevel());
+    }
+
     public void testEnableResumeScanning() {
         mWifiTracker.mScanner = null;
 
@@ -325,6 +406,27 @@ public class WifiTrackerTest extends BaseTest {
         return level * (MAX_RSSI - MIN_RSSI) / (NUM_LEVELS - 1) + MIN_RSSI;
     }
 
+    private List<ScanResult> withRssi(List<ScanResult> results, String ssid, int rssi) {
+        List<ScanResult> newResults = new ArrayList<ScanResult>(results.size());
+        for (ScanResult result : results) {
+            if (ssid.equals(result.SSID)) {
+                result = new ScanResult(result);
+                result.level = rssi;
+            }
+            newResults.add(result);
+        }
+        return newResults;
+    }
+
+    private AccessPoint findAccessPoint(String ssid) {
+        for (AccessPoint accessPoint : mWifiTracker.getAccessPoints()) {
+            if (ssid.equals(accessPoint.getSsidStr())) {
+                return accessPoint;
+            }
+        }
+        return null;
+    }
+
     private int addConfig(List<WifiConfiguration> configs, String ssid) {
         WifiConfiguration config = new WifiConfiguration();
         config.networkId = configs.size();
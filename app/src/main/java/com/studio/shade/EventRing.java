@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.studio.shade;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-size ring of events which can be recorded from any thread without locking or
+ * allocating. An event consists of an id, the time it was recorded, a few primitive arguments
+ * and up to two objects which already exist anyway, e.g. constant tags. The events are only
+ * turned into text when the ring is dumped.
+ */
+public class EventRing {
+
+    /**
+     * Turns a recorded event into text when the ring is dumped.
+     */
+    public interface EventFormatter {
+
+        /**
+         * Prints the event without the time and without a trailing newline.
+         */
+        void format(PrintWriter pw, int event, long arg0, long arg1, long arg2, Object obj0,
+                Object obj1);
+    }
+
+    private static final int STAMP = 0;
+    private static final int TIME = 1;
+    private static final int EVENT = 2;
+    private static final int ARG0 = 3;
+    private static final int ARG1 = 4;
+    private static final int ARG2 = 5;
+    private static final int STRIDE = 6;
+
+    private static final long WRITING = -1;
+
+    private final int mMask;
+    private final AtomicLong mNextSequence = new AtomicLong();
+    private final AtomicLongArray mData;
+    private final AtomicReferenceArray<Object> mObjects;
+    private final EventFormatter mFormatter;
+    private final SimpleDateFormat mFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS",
+            Locale.US);
+
+    /**
+     * @param capacity the number of events kept, rounded up to a power of two
+     */
+    public EventRing(int capacity, EventFormatter formatter) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mMask = size - 1;
+        mData = new AtomicLongArray(size * STRIDE);
+        mObjects = new AtomicReferenceArray<>(size * 2);
+        mFormatter = formatter;
+        for (int i = 0; i < size; i++) {
+            mData.set(i * STRIDE + STAMP, WRITING);
+        }
+    }
+
+    public void record(int event) {
+        record(event, 0, 0, 0, null, null);
+    }
+
+    public void record(int event, long arg0) {
+        record(event, arg0, 0, 0, null, null);
+    }
+
+    public void record(int event, long arg0, long arg1, long arg2) {
+        record(event, arg0, arg1, arg2, null, null);
+    }
+
+    public void record(int event, long arg0, long arg1, long arg2, Object obj0, Object obj1) {
+        final long sequence = mNextSequence.getAndIncrement();
+        final int slot = (int) sequence & mMask;
+        final int base = slot * STRIDE;
+        // Readers skip the slot until the stamp matches the sequence again, like a seqlock.
+        mData.set(base + STAMP, WRITING);
+        mData.set(base + TIME, System.currentTimeMillis());
+        mData.set(base + EVENT, event);
+        mData.set(base + ARG0, arg0);
+        mData.set(base + ARG1, arg1);
+        mData.set(base + ARG2, arg2);
+        mObjects.set(slot * 2, obj0);
+        mObjects.set(slot * 2 + 1, obj1);
+        mData.set(base + STAMP, sequence);
+    }
+
+    /**
+     * Prints one line per event, oldest first. Events which are overwritten while dumping are
+     * left out.
+     */
+    public void dump(PrintWriter pw, String prefix) {
+        final long end = mNextSequence.get();
+        final long start = Math.max(0, end - (mMask + 1));
+        for (long sequence = start; sequence < end; sequence++) {
+            final int slot = (int) sequence & mMask;
+            final int base = slot * STRIDE;
+            if (mData.get(base + STAMP) != sequence) {
+                continue;
+            }
+            long time = mData.get(base + TIME);
+            int event = (int) mData.get(base + EVENT);
+            long arg0 = mData.get(base + ARG0);
+            long arg1 = mData.get(base + ARG1);
+            long arg2 = mData.get(base + ARG2);
+            Object obj0 = mObjects.get(slot * 2);
+            Object obj1 = mObjects.get(slot * 2 + 1);
+            if (mData.get(base + STAMP) != sequence) {
+                continue;
+            }
+            pw.print(prefix);
+            synchronized (mFormat) {
+                pw.print(mFormat.format(new Date(time)));
+            }
+            pw.print(' ');
+            mFormatter.format(pw, event, arg0, arg1, arg2, obj0, obj1);
+            pw.println();
+        }
+    }
+
+    public boolean isEmpty() {
+        return mNextSequence.get() == 0;
+    }
+}
@@ -28,6 +28,8 @@ import java.util.Map;
 public final class Prefs {
     private Prefs() {} // no instantation
 
+    private static PrefsStore sStore;
+
     @Retention(RetentionPolicy.SOURCE)
     @StringDef({
         Key.OVERVIEW_LAST_STACK_TASK_ACTIVE_TIME,
@@ -121,6 +123,12 @@ public final class Prefs {
     }
 
     private static SharedPreferences get(Context context) {
-        return context.getSharedPreferences(context.getPackageName(), Context.MODE_PRIVATE);
+        synchronized (Prefs.class) {
+            if (sStore == null) {
+                sStore = new PrefsStore(context.getApplicationContext(),
+                        context.getPackageName());
+            }
+            return sStore;
+        }
     }
 }
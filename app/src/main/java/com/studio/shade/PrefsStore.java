@@ -0,0 +1,452 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+
+package com.studio.shade;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * The {@link SharedPreferences} behind {@link Prefs}. All values are kept in memory. A write is
+ * scheduled a short while after the last change, on a background thread, into a compact binary
+ * {@link AtomicFile}, so an interrupted write falls back to the previous file.
+ */
+final class PrefsStore implements SharedPreferences {
+
+    private static final String TAG = "PrefsStore";
+
+    private static final String FILE_NAME = "prefs.bin";
+    private static final int VERSION = 1;
+    private static final long WRITE_DELAY_MS = 500;
+
+    private static final byte TYPE_BOOLEAN = 0;
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_FLOAT = 3;
+    private static final byte TYPE_STRING = 4;
+    private static final byte TYPE_STRING_SET = 5;
+
+    private final Context mContext;
+    private final AtomicFile mFile;
+    private final Object mLock = new Object();
+    private final Object mWriteLock = new Object();
+    private final ArrayMap<String, Object> mValues = new ArrayMap<>();
+    private final WeakHashMap<OnSharedPreferenceChangeListener, Object> mListeners =
+            new WeakHashMap<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private Handler mWriteHandler;
+    // The shared preferences the values were migrated from, deleted once the values were
+    // written and read back
+    private String mLegacyName;
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writeToDisk();
+        }
+    };
+
+    PrefsStore(Context context, String legacyName) {
+        mContext = context;
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+        if (!readFromDisk()) {
+            // Not migrated yet, or the migration wasn't verified and the legacy values are
+            // still around.
+            SharedPreferences legacy = context.getSharedPreferences(legacyName,
+                    Context.MODE_PRIVATE);
+            synchronized (mLock) {
+                mValues.putAll(legacy.getAll());
+                mLegacyName = legacyName;
+                scheduleWriteLocked();
+            }
+        }
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        synchronized (mLock) {
+            return new HashMap<>(mValues);
+        }
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        synchronized (mLock) {
+            String value = (String) mValues.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        synchronized (mLock) {
+            Set<String> values = (Set<String>) mValues.get(key);
+            return values != null ? values : defValues;
+        }
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        synchronized (mLock) {
+            Integer value = (Integer) mValues.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        synchronized (mLock) {
+            Long value = (Long) mValues.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        synchronized (mLock) {
+            Float value = (Float) mValues.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        synchronized (mLock) {
+            Boolean value = (Boolean) mValues.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        synchronized (mLock) {
+            return mValues.containsKey(key);
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        synchronized (mLock) {
+            mListeners.put(listener, mLock);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        synchronized (mLock) {
+            mListeners.remove(listener);
+        }
+    }
+
+    private void applyChanges(boolean clear, ArrayMap<String, Object> modified) {
+        final ArrayList<String> changedKeys = new ArrayList<>();
+        final ArrayList<OnSharedPreferenceChangeListener> listeners;
+        synchronized (mLock) {
+            boolean changed = false;
+            if (clear && !mValues.isEmpty()) {
+                mValues.clear();
+                changed = true;
+            }
+            final int N = modified.size();
+            for (int i = 0; i < N; i++) {
+                String key = modified.keyAt(i);
+                Object value = modified.valueAt(i);
+                if (value == null) {
+                    if (mValues.containsKey(key)) {
+                        mValues.remove(key);
+                        changedKeys.add(key);
+                    }
+                } else if (!value.equals(mValues.put(key, value))) {
+                    changedKeys.add(key);
+                }
+            }
+            if (!changed && changedKeys.isEmpty()) {
+                return;
+            }
+            scheduleWriteLocked();
+            listeners = mListeners.isEmpty() ? null : new ArrayList<>(mListeners.keySet());
+        }
+        if (listeners != null && !changedKeys.isEmpty()) {
+            notifyListeners(listeners, changedKeys);
+        }
+    }
+
+    private void notifyListeners(final ArrayList<OnSharedPreferenceChangeListener> listeners,
+            final ArrayList<String> keys) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            // Like regular shared preferences, listeners are only called on the main thread.
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    notifyListeners(listeners, keys);
+                }
+            });
+            return;
+        }
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            for (int j = 0; j < listeners.size(); j++) {
+                listeners.get(j).onSharedPreferenceChanged(this, keys.get(i));
+            }
+        }
+    }
+
+    private void scheduleWriteLocked() {
+        if (mWriteHandler == null) {
+            HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mWriteHandler = new Handler(thread.getLooper());
+        }
+        // Wait for the changes to settle, a burst of changes is written once.
+        mWriteHandler.removeCallbacks(mWriteRunnable);
+        mWriteHandler.postDelayed(mWriteRunnable, WRITE_DELAY_MS);
+    }
+
+    private boolean writeToDisk() {
+        synchronized (mWriteLock) {
+            final ArrayMap<String, Object> values;
+            synchronized (mLock) {
+                if (mWriteHandler != null) {
+                    mWriteHandler.removeCallbacks(mWriteRunnable);
+                }
+                values = new ArrayMap<>(mValues);
+            }
+            FileOutputStream fos = null;
+            try {
+                fos = mFile.startWrite();
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+                writeValues(out, values);
+                out.flush();
+                mFile.finishWrite(fos);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to write " + mFile.getBaseFile(), e);
+                mFile.failWrite(fos);
+                return false;
+            }
+            if (mLegacyName != null) {
+                if (values.equals(readValues())) {
+                    mContext.deleteSharedPreferences(mLegacyName);
+                    mLegacyName = null;
+                } else {
+                    Log.w(TAG, "Keeping " + mLegacyName + ", written values don't match");
+                }
+            }
+            return true;
+        }
+    }
+
+    private static void writeValues(DataOutputStream out, ArrayMap<String, Object> values)
+            throws IOException {
+        out.writeInt(VERSION);
+        final int N = values.size();
+        out.writeInt(N);
+        for (int i = 0; i < N; i++) {
+            out.writeUTF(values.keyAt(i));
+            Object value = values.valueAt(i);
+            if (value instanceof Boolean) {
+                out.writeByte(TYPE_BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(TYPE_INT);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                out.writeByte(TYPE_FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof String) {
+                out.writeByte(TYPE_STRING);
+                out.writeUTF((String) value);
+            } else {
+                Set<String> strings = (Set<String>) value;
+                out.writeByte(TYPE_STRING_SET);
+                out.writeInt(strings.size());
+                for (String string : strings) {
+                    out.writeUTF(string);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if there are no values on disk or they couldn't be read
+     */
+    private boolean readFromDisk() {
+        final ArrayMap<String, Object> values = readValues();
+        if (values == null) {
+            return false;
+        }
+        synchronized (mLock) {
+            mValues.putAll(values);
+        }
+        return true;
+    }
+
+    private ArrayMap<String, Object> readValues() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != VERSION) {
+                throw new IOException("Unknown version");
+            }
+            final int N = in.readInt();
+            if (N < 0) {
+                throw new IOException("Invalid size " + N);
+            }
+            final ArrayMap<String, Object> values = new ArrayMap<>(N);
+            for (int i = 0; i < N; i++) {
+                String key = in.readUTF();
+                values.put(key, readValue(in));
+            }
+            return values;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + mFile.getBaseFile(), e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_INT:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_FLOAT:
+                return in.readFloat();
+            case TYPE_STRING:
+                return in.readUTF();
+            case TYPE_STRING_SET:
+                final int size = in.readInt();
+                if (size < 0) {
+                    throw new IOException("Invalid size " + size);
+                }
+                ArraySet<String> strings = new ArraySet<>(size);
+                for (int i = 0; i < size; i++) {
+                    strings.add(in.readUTF());
+                }
+                return strings;
+            default:
+                throw new IOException("Unknown type " + type);
+        }
+    }
+
+    private final class EditorImpl implements Editor {
+        // A null value removes the key
+        private final ArrayMap<String, Object> mModified = new ArrayMap<>();
+        private boolean mClear;
+
+        @Override
+        public Editor putString(String key, String value) {
+            mModified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            mModified.put(key, values != null ? new ArraySet<>(values) : null);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            mModified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            mModified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            mModified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            mModified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            mModified.put(key, null);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            mClear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            applyChanges(mClear, mModified);
+            return writeToDisk();
+        }
+
+        @Override
+        public void apply() {
+            applyChanges(mClear, mModified);
+        }
+    }
+}
@@ -21,7 +21,6 @@ import android.database.ContentObserver;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Handler;
 import android.os.UserHandle;
@@ -30,16 +29,15 @@ import android.util.Log;
 import android.view.MotionEvent;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 
 import static com.studio.shade.statusbar.phone.TouchAnalyticsProto.Session;
 import static com.studio.shade.statusbar.phone.TouchAnalyticsProto.Session.PhoneEvent;
 
 /**
- * Tracks touch, sensor and phone events when the lockscreen is on. If the phone is unlocked
- * the data containing these events is saved to a file. This data is collected
- * to analyze how a human interaction looks like.
+ * Tracks touch, sensor and phone events when the lockscreen is on. The events are streamed to
+ * a trace file while the session is running and the session is kept if the phone is unlocked.
+ * This data is collected to analyze how a human interaction looks like. The sessions can be
+ * read back with {@link TraceReader}.
  *
  * A session starts when the screen is turned on.
  * A session ends when the screen is turned off or user unlocks the phone.
@@ -58,6 +56,7 @@ public class DataCollector implements SensorEventListener {
     // Err on the side of caution, so logging is not started after a crash even tough the screen
     // is off.
     private SensorLoggerSession mCurrentSession = null;
+    private TraceWriter mTraceWriter;
 
     private boolean mEnableCollector = false;
     private boolean mTimeoutActive = false;
@@ -123,43 +122,20 @@ public class DataCollector implements SensorEventListener {
     private void onSessionStart() {
         mCornerSwiping = false;
         mTrackingStarted = false;
-        mCurrentSession = new SensorLoggerSession(System.currentTimeMillis(), System.nanoTime());
+        if (mTraceWriter == null) {
+            mTraceWriter = new TraceWriter(new File(mContext.getFilesDir(),
+                    TraceWriter.TRACE_DIRECTORY));
+        }
+        mCurrentSession = new SensorLoggerSession(System.currentTimeMillis(), System.nanoTime(),
+                mTraceWriter);
     }
 
     private void onSessionEnd(int result) {
         SensorLoggerSession session = mCurrentSession;
         mCurrentSession = null;
 
-        session.end(System.currentTimeMillis(), result);
-        queueSession(session);
-    }
-
-    private void queueSession(final SensorLoggerSession currentSession) {
-        AsyncTask.execute(new Runnable() {
-            @Override
-            public void run() {
-                byte[] b = Session.toByteArray(currentSession.toProto());
-                String dir = mContext.getFilesDir().getAbsolutePath();
-                if (currentSession.getResult() != Session.SUCCESS) {
-                    if (!mCollectBadTouches) {
-                        return;
-                    }
-                    dir += "/bad_touches";
-                } else {
-                    dir += "/good_touches";
-                }
-
-                File file = new File(dir);
-                file.mkdir();
-                File touch = new File(file, "trace_" + System.currentTimeMillis());
-
-                try {
-                    new FileOutputStream(touch).write(b);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-        });
+        session.end(System.currentTimeMillis(), result,
+                result == Session.SUCCESS || mCollectBadTouches);
     }
 
     @Override
@@ -29,11 +29,17 @@ import static com.studio.shade.statusbar.phone.TouchAnalyticsProto.Session.Touch
 
 /**
  * Collects touch, sensor and phone events and converts the data to
- * TouchAnalyticsProto.Session.
+ * TouchAnalyticsProto.Session. The events are handed to a {@link TraceWriter} in batches, so
+ * only the latest batch is kept in memory.
  */
 public class SensorLoggerSession {
     private static final String TAG = "SensorLoggerSession";
 
+    /** Number of events after which the pending events are written to the trace */
+    private static final int EVENT_BATCH_SIZE = 128;
+
+    private final TraceWriter mTraceWriter;
+
     private final long mStartTimestampMillis;
     private final long mStartSystemTimeNanos;
 
@@ -43,17 +49,27 @@ public class SensorLoggerSession {
     private ArrayList<TouchEvent> mMotionEvents = new ArrayList<>();
     private ArrayList<SensorEvent> mSensorEvents = new ArrayList<>();
     private ArrayList<PhoneEvent> mPhoneEvents = new ArrayList<>();
+    private int mMotionEventCount;
+    private int mSensorEventCount;
+    private int mPhoneEventCount;
     private int mTouchAreaHeight;
     private int mTouchAreaWidth;
     private int mResult = Session.UNKNOWN;
 
-    public SensorLoggerSession(long startTimestampMillis, long startSystemTimeNanos) {
+    public SensorLoggerSession(long startTimestampMillis, long startSystemTimeNanos,
+            TraceWriter traceWriter) {
         mStartTimestampMillis = startTimestampMillis;
         mStartSystemTimeNanos = startSystemTimeNanos;
         mType = Session.REAL;
+        mTraceWriter = traceWriter;
+        mTraceWriter.write(TraceWriter.RECORD_SESSION_START, toStartProto());
     }
 
-    public void end(long endTimestampMillis, int result) {
+    /**
+     * @param keep whether the session should be kept in the trace, otherwise it is removed from
+     *             the trace again
+     */
+    public void end(long endTimestampMillis, int result, boolean keep) {
         mResult = result;
         mEndTimestampMillis = endTimestampMillis;
 
@@ -61,21 +77,54 @@ public class SensorLoggerSession {
             Log.d(TAG, "Ending session result=" + result + " it lasted for " +
                     (float) (mEndTimestampMillis - mStartTimestampMillis) / 1000f + "s");
         }
+        if (keep) {
+            flushEvents();
+            mTraceWriter.write(TraceWriter.RECORD_SESSION_END, toEndProto());
+        } else {
+            mTraceWriter.write(TraceWriter.RECORD_SESSION_DISCARDED, new Session());
+        }
     }
 
     public void addMotionEvent(MotionEvent motionEvent) {
         TouchEvent event = motionEventToProto(motionEvent);
         mMotionEvents.add(event);
+        mMotionEventCount++;
+        flushEventsIfNeeded();
     }
 
     public void addSensorEvent(android.hardware.SensorEvent eventOrig, long systemTimeNanos) {
         SensorEvent event = sensorEventToProto(eventOrig, systemTimeNanos);
         mSensorEvents.add(event);
+        mSensorEventCount++;
+        flushEventsIfNeeded();
     }
 
     public void addPhoneEvent(int eventType, long systemTimeNanos) {
         PhoneEvent event = phoneEventToProto(eventType, systemTimeNanos);
         mPhoneEvents.add(event);
+        mPhoneEventCount++;
+        flushEventsIfNeeded();
+    }
+
+    private void flushEventsIfNeeded() {
+        if (mMotionEvents.size() + mSensorEvents.size() + mPhoneEvents.size()
+                >= EVENT_BATCH_SIZE) {
+            flushEvents();
+        }
+    }
+
+    private void flushEvents() {
+        if (mMotionEvents.isEmpty() && mSensorEvents.isEmpty() && mPhoneEvents.isEmpty()) {
+            return;
+        }
+        Session proto = new Session();
+        proto.sensorEvents = mSensorEvents.toArray(proto.sensorEvents);
+        proto.touchEvents = mMotionEvents.toArray(proto.touchEvents);
+        proto.phoneEvents = mPhoneEvents.toArray(proto.phoneEvents);
+        mSensorEvents.clear();
+        mMotionEvents.clear();
+        mPhoneEvents.clear();
+        mTraceWriter.write(TraceWriter.RECORD_EVENTS, proto);
     }
 
 
@@ -88,23 +137,25 @@ public class SensorLoggerSession {
         sb.append(", mResult=").append(mResult);
         sb.append(", mTouchAreaHeight=").append(mTouchAreaHeight);
         sb.append(", mTouchAreaWidth=").append(mTouchAreaWidth);
-        sb.append(", mMotionEvents=[size=").append(mMotionEvents.size()).append("]");
-        sb.append(", mSensorEvents=[size=").append(mSensorEvents.size()).append("]");
-        sb.append(", mPhoneEvents=[size=").append(mPhoneEvents.size()).append("]");
+        sb.append(", mMotionEvents=[size=").append(mMotionEventCount).append("]");
+        sb.append(", mSensorEvents=[size=").append(mSensorEventCount).append("]");
+        sb.append(", mPhoneEvents=[size=").append(mPhoneEventCount).append("]");
         sb.append('}');
         return sb.toString();
     }
 
-    public Session toProto() {
+    private Session toStartProto() {
         Session proto = new Session();
         proto.setStartTimestampMillis(mStartTimestampMillis);
-        proto.setDurationMillis(mEndTimestampMillis - mStartTimestampMillis);
         proto.setBuild(Build.FINGERPRINT);
-        proto.setResult(mResult);
         proto.setType(mType);
-        proto.sensorEvents = mSensorEvents.toArray(proto.sensorEvents);
-        proto.touchEvents = mMotionEvents.toArray(proto.touchEvents);
-        proto.phoneEvents = mPhoneEvents.toArray(proto.phoneEvents);
+        return proto;
+    }
+
+    private Session toEndProto() {
+        Session proto = new Session();
+        proto.setDurationMillis(mEndTimestampMillis - mStartTimestampMillis);
+        proto.setResult(mResult);
         proto.setTouchAreaWidth(mTouchAreaWidth);
         proto.setTouchAreaHeight(mTouchAreaHeight);
         return proto;
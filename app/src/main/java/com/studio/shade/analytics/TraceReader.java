@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.studio.shade.analytics;
+
+import com.google.protobuf.nano.MessageNano;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import static com.studio.shade.statusbar.phone.TouchAnalyticsProto.Session;
+
+/**
+ * Reads the sessions back from a trace written by {@link TraceWriter}, e.g. to replay them
+ * through the classifiers when tuning them offline. Sessions which were discarded or never
+ * ended because SystemUI died are skipped.
+ */
+public class TraceReader implements Closeable {
+    /** Size of the record type and the payload length preceding each payload */
+    private static final int RECORD_HEADER_BYTES = 5;
+
+    private final DataInputStream mInput;
+    private long mRemainingBytes;
+
+    public TraceReader(File file) throws IOException {
+        mInput = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        mRemainingBytes = file.length();
+    }
+
+    /**
+     * @return the next complete session in the trace or null if there are no more sessions
+     */
+    public Session nextSession() throws IOException {
+        Session session = null;
+        while (true) {
+            int recordType = mInput.read();
+            if (recordType < 0) {
+                return null;
+            }
+            byte[] payload;
+            try {
+                int length = mInput.readInt();
+                mRemainingBytes -= RECORD_HEADER_BYTES;
+                if (length < 0 || length > mRemainingBytes) {
+                    // The trace is corrupt, nothing after this can be trusted.
+                    return null;
+                }
+                payload = new byte[length];
+                mInput.readFully(payload);
+                mRemainingBytes -= length;
+            } catch (EOFException e) {
+                // The last record was cut off while it was written.
+                return null;
+            }
+            switch (recordType) {
+                case TraceWriter.RECORD_SESSION_START:
+                    session = new Session();
+                    MessageNano.mergeFrom(session, payload);
+                    break;
+                case TraceWriter.RECORD_EVENTS:
+                    if (session != null) {
+                        MessageNano.mergeFrom(session, payload);
+                    }
+                    break;
+                case TraceWriter.RECORD_SESSION_END:
+                    if (session != null) {
+                        MessageNano.mergeFrom(session, payload);
+                        return session;
+                    }
+                    break;
+                case TraceWriter.RECORD_SESSION_DISCARDED:
+                    session = null;
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + recordType);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.studio.shade.analytics;
+
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.google.protobuf.nano.MessageNano;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Locale;
+
+import static com.studio.shade.statusbar.phone.TouchAnalyticsProto.Session;
+
+/**
+ * Appends sessions to an append-only trace file per day. Every record is a type byte, the
+ * length of the payload and a partial {@link Session} as payload. Parsing all partial sessions
+ * between a start and an end record into the same proto yields the complete session, since
+ * repeated fields are concatenated when merging.
+ *
+ * The files are written on a background thread. Records are collected in a buffer, which is
+ * written when it is full or the session ends. A discarded session is cut off the file again,
+ * so it doesn't remain in the trace. A file is rotated when it grows larger than
+ * {@link #MAX_FILE_BYTES} and the oldest files are deleted to keep all traces below
+ * {@link #MAX_TOTAL_BYTES}. Rotation only happens when a session starts, so a session is never
+ * split across files.
+ */
+public class TraceWriter {
+    private static final String TAG = "TraceWriter";
+
+    public static final String TRACE_DIRECTORY = "touch_traces";
+    static final String FILE_PREFIX = "trace_";
+
+    static final int RECORD_SESSION_START = 1;
+    static final int RECORD_EVENTS = 2;
+    static final int RECORD_SESSION_END = 3;
+    static final int RECORD_SESSION_DISCARDED = 4;
+
+    /** Size of the record type and the payload length preceding each payload */
+    private static final int RECORD_HEADER_BYTES = 5;
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private static final long MAX_FILE_BYTES = 4 * 1024 * 1024;
+    private static final long MAX_TOTAL_BYTES = 32 * 1024 * 1024;
+
+    private final File mDirectory;
+
+    // Only accessed on the serial executor.
+    private final SimpleDateFormat mDayFormat = new SimpleDateFormat("yyyyMMdd", Locale.US);
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private FileChannel mChannel;
+    private File mFile;
+    // Offset of the running session in the file, or -1 if it didn't start in this file.
+    private long mSessionStart = -1;
+
+    public TraceWriter(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Queues a record to be appended to the trace. The proto must not be modified afterwards.
+     */
+    public void write(final int recordType, final Session proto) {
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeRecord(recordType, proto);
+            }
+        });
+    }
+
+    private void writeRecord(int recordType, Session proto) {
+        try {
+            if (recordType == RECORD_SESSION_START) {
+                // Keep what is left of a session which never ended.
+                flushBuffer();
+                openTraceFile();
+                mSessionStart = mChannel.size();
+            } else if (mChannel == null) {
+                openTraceFile();
+                mSessionStart = -1;
+            }
+            if (recordType == RECORD_SESSION_DISCARDED && mSessionStart >= 0) {
+                mBuffer.clear();
+                mChannel.truncate(mSessionStart);
+                closeTraceFile();
+                return;
+            }
+            byte[] payload = MessageNano.toByteArray(proto);
+            int recordBytes = RECORD_HEADER_BYTES + payload.length;
+            if (mBuffer.remaining() < recordBytes) {
+                flushBuffer();
+            }
+            if (mBuffer.remaining() < recordBytes) {
+                ByteBuffer record = ByteBuffer.allocate(recordBytes);
+                putRecord(record, recordType, payload);
+                record.flip();
+                writeFully(record);
+            } else {
+                putRecord(mBuffer, recordType, payload);
+            }
+            if (recordType == RECORD_SESSION_END || recordType == RECORD_SESSION_DISCARDED) {
+                flushBuffer();
+                // Sessions are rare, no need to hold on to the file in between.
+                closeTraceFile();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write trace", e);
+            closeTraceFile();
+        }
+    }
+
+    private static void putRecord(ByteBuffer buffer, int recordType, byte[] payload) {
+        buffer.put((byte) recordType);
+        buffer.putInt(payload.length);
+        buffer.put(payload);
+    }
+
+    private void flushBuffer() throws IOException {
+        mBuffer.flip();
+        writeFully(mBuffer);
+        mBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+
+    private void openTraceFile() throws IOException {
+        String name = FILE_PREFIX + mDayFormat.format(new Date());
+        File file = new File(mDirectory, name);
+        for (int part = 1; file.length() >= MAX_FILE_BYTES; part++) {
+            file = new File(mDirectory, name + "_" + part);
+        }
+        if (mChannel != null && file.equals(mFile)) {
+            return;
+        }
+        closeTraceFile();
+        mDirectory.mkdirs();
+        trimTraceFiles();
+        mChannel = new FileOutputStream(file, true).getChannel();
+        mFile = file;
+    }
+
+    private void closeTraceFile() {
+        mBuffer.clear();
+        mSessionStart = -1;
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to close trace", e);
+            }
+            mChannel = null;
+            mFile = null;
+        }
+    }
+
+    /**
+     * Deletes the oldest trace files until there is room for another full file.
+     */
+    private void trimTraceFiles() {
+        File[] files = listTraceFiles(mDirectory);
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        for (int i = 0; i < files.length && total > MAX_TOTAL_BYTES - MAX_FILE_BYTES; i++) {
+            total -= files[i].length();
+            if (!files[i].delete()) {
+                Log.w(TAG, "Unable to delete " + files[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the trace files in a directory, oldest first
+     */
+    public static File[] listTraceFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().startsWith(FILE_PREFIX)) {
+                files[count++] = file;
+            }
+        }
+        files = Arrays.copyOf(files, count);
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(lhs.lastModified(), rhs.lastModified());
+            }
+        });
+        return files;
+    }
+}
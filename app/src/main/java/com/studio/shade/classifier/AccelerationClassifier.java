@@ -18,7 +18,7 @@ package com.studio.shade.classifier;
 
 import android.view.MotionEvent;
 
-import java.util.HashMap;
+import android.util.SparseArray;
 
 /**
  * A classifier which looks at the speed and distance between successive points of a Stroke.
@@ -29,7 +29,7 @@ import java.util.HashMap;
  * calculate the speed of a part.
  */
 public class AccelerationClassifier extends StrokeClassifier {
-    private final HashMap<Stroke, Data> mStrokeMap = new HashMap<>();
+    private final SparseArray<Data> mStrokeMap = new SparseArray<>();
 
     public AccelerationClassifier(ClassifierData classifierData) {
         mClassifierData = classifierData;
@@ -42,46 +42,53 @@ public class AccelerationClassifier extends StrokeClassifier {
 
     @Override
     public void onTouchEvent(MotionEvent event) {
-        int action = event.getActionMasked();
-
-        if (action == MotionEvent.ACTION_DOWN) {
-            mStrokeMap.clear();
-        }
-
         for (int i = 0; i < event.getPointerCount(); i++) {
             Stroke stroke = mClassifierData.getStroke(event.getPointerId(i));
-            Point point = stroke.getPoints().get(stroke.getPoints().size() - 1);
-            if (mStrokeMap.get(stroke) == null) {
-                mStrokeMap.put(stroke, new Data(point));
+            int last = stroke.getCount() - 1;
+            float x = stroke.getX(last);
+            float y = stroke.getY(last);
+            long timeOffsetNano = stroke.getTimeOffsetNano(last);
+            Data data = mStrokeMap.get(stroke.getPointerId());
+            if (data == null) {
+                data = new Data();
+                mStrokeMap.put(stroke.getPointerId(), data);
+            }
+            if (last == 0) {
+                // A new stroke, the data of a previous one of this pointer is reused.
+                data.reset(x, y, timeOffsetNano);
             } else {
-                mStrokeMap.get(stroke).addPoint(point);
+                data.addPoint(x, y, timeOffsetNano);
             }
         }
     }
 
     @Override
     public float getFalseTouchEvaluation(int type, Stroke stroke) {
-        Data data = mStrokeMap.get(stroke);
+        Data data = mStrokeMap.get(stroke.getPointerId());
         return SpeedRatioEvaluator.evaluate(data.maxSpeedRatio)
                 + DistanceRatioEvaluator.evaluate(data.maxDistanceRatio);
     }
 
     private static class Data {
-        public Point previousPoint;
+        public float previousX;
+        public float previousY;
+        public long previousTimeOffsetNano;
         public float previousSpeed;
         public float previousDistance;
         public float maxSpeedRatio;
         public float maxDistanceRatio;
 
-        public Data(Point point) {
-            previousPoint = point;
+        public void reset(float x, float y, long timeOffsetNano) {
+            previousX = x;
+            previousY = y;
+            previousTimeOffsetNano = timeOffsetNano;
             previousSpeed = previousDistance = 0.0f;
             maxDistanceRatio = maxSpeedRatio = 0.0f;
         }
 
-        public void addPoint(Point point) {
-            float distance = previousPoint.dist(point);
-            float duration = (float) (point.timeOffsetNano - previousPoint.timeOffsetNano + 1);
+        public void addPoint(float x, float y, long timeOffsetNano) {
+            float distance = Point.dist(previousX, previousY, x, y);
+            float duration = (float) (timeOffsetNano - previousTimeOffsetNano + 1);
             float speed = distance / duration;
             if (previousDistance != 0.0f) {
                 maxDistanceRatio = Math.max(maxDistanceRatio, distance / previousDistance);
@@ -93,7 +100,9 @@ public class AccelerationClassifier extends StrokeClassifier {
 
             previousDistance = distance;
             previousSpeed = speed;
-            previousPoint = point;
+            previousX = x;
+            previousY = y;
+            previousTimeOffsetNano = timeOffsetNano;
         }
     }
 }
\ No newline at end of file
@@ -16,12 +16,9 @@
 
 package com.studio.shade.classifier;
 
+import android.util.SparseArray;
 import android.view.MotionEvent;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-
 /**
  * A classifier which calculates the variance of differences between successive angles in a stroke.
  * For each stroke it keeps its last three points. If some successive points are the same, it
@@ -47,7 +44,7 @@ import java.util.List;
  * in the same direction (straight angles can be left angels or right angles)
  */
 public class AnglesClassifier extends StrokeClassifier {
-    private HashMap<Stroke, Data> mStrokeMap = new HashMap<>();
+    private SparseArray<Data> mStrokeMap = new SparseArray<>();
 
     public AnglesClassifier(ClassifierData classifierData) {
         mClassifierData = classifierData;
@@ -60,25 +57,25 @@ public class AnglesClassifier extends StrokeClassifier {
 
     @Override
     public void onTouchEvent(MotionEvent event) {
-        int action = event.getActionMasked();
-
-        if (action == MotionEvent.ACTION_DOWN) {
-            mStrokeMap.clear();
-        }
-
         for (int i = 0; i < event.getPointerCount(); i++) {
             Stroke stroke = mClassifierData.getStroke(event.getPointerId(i));
-
-            if (mStrokeMap.get(stroke) == null) {
-                mStrokeMap.put(stroke, new Data());
+            int last = stroke.getCount() - 1;
+
+            Data data = mStrokeMap.get(stroke.getPointerId());
+            if (data == null) {
+                data = new Data();
+                mStrokeMap.put(stroke.getPointerId(), data);
+            } else if (last == 0) {
+                // A new stroke, the data of a previous one of this pointer is reused.
+                data.reset();
             }
-            mStrokeMap.get(stroke).addPoint(stroke.getPoints().get(stroke.getPoints().size() - 1));
+            data.addPoint(stroke.getX(last), stroke.getY(last));
         }
     }
 
     @Override
     public float getFalseTouchEvaluation(int type, Stroke stroke) {
-        Data data = mStrokeMap.get(stroke);
+        Data data = mStrokeMap.get(stroke.getPointerId());
         return AnglesVarianceEvaluator.evaluate(data.getAnglesVariance())
                 + AnglesPercentageEvaluator.evaluate(data.getAnglesPercentage());
     }
@@ -86,7 +83,9 @@ public class AnglesClassifier extends StrokeClassifier {
     private static class Data {
         private final float ANGLE_DEVIATION = (float) Math.PI / 20.0f;
 
-        private List<Point> mLastThreePoints = new ArrayList<>();
+        private final float[] mLastThreeXs = new float[3];
+        private final float[] mLastThreeYs = new float[3];
+        private int mLastPointsCount;
         private float mFirstAngleVariance;
         private float mPreviousAngle;
         private float mBiggestAngle;
@@ -104,6 +103,11 @@ public class AnglesClassifier extends StrokeClassifier {
         private float mStraightAngles;
 
         public Data() {
+            reset();
+        }
+
+        public void reset() {
+            mLastPointsCount = 0;
             mFirstAngleVariance = 0.0f;
             mPreviousAngle = (float) Math.PI;
             mBiggestAngle = 0.0f;
@@ -114,20 +118,29 @@ public class AnglesClassifier extends StrokeClassifier {
             mAnglesCount = mLeftAngles = mRightAngles = mStraightAngles = 0.0f;
         }
 
-        public void addPoint(Point point) {
+        public void addPoint(float x, float y) {
             // Checking if the added point is different than the previously added point
             // Repetitions are being ignored so that proper angles are calculated.
-            if (mLastThreePoints.isEmpty()
-                    || !mLastThreePoints.get(mLastThreePoints.size() - 1).equals(point)) {
-                if (!mLastThreePoints.isEmpty()) {
-                    mLength += mLastThreePoints.get(mLastThreePoints.size() - 1).dist(point);
+            int last = mLastPointsCount - 1;
+            if (mLastPointsCount == 0
+                    || mLastThreeXs[last] != x || mLastThreeYs[last] != y) {
+                if (mLastPointsCount != 0) {
+                    mLength += Point.dist(mLastThreeXs[last], mLastThreeYs[last], x, y);
                 }
-                mLastThreePoints.add(point);
-                if (mLastThreePoints.size() == 4) {
-                    mLastThreePoints.remove(0);
-
-                    float angle = mLastThreePoints.get(1).getAngle(mLastThreePoints.get(0),
-                            mLastThreePoints.get(2));
+                if (mLastPointsCount < 3) {
+                    mLastThreeXs[mLastPointsCount] = x;
+                    mLastThreeYs[mLastPointsCount] = y;
+                    mLastPointsCount++;
+                } else {
+                    mLastThreeXs[0] = mLastThreeXs[1];
+                    mLastThreeYs[0] = mLastThreeYs[1];
+                    mLastThreeXs[1] = mLastThreeXs[2];
+                    mLastThreeYs[1] = mLastThreeYs[2];
+                    mLastThreeXs[2] = x;
+                    mLastThreeYs[2] = y;
+
+                    float angle = Point.getAngle(mLastThreeXs[1], mLastThreeYs[1],
+                            mLastThreeXs[0], mLastThreeYs[0], mLastThreeXs[2], mLastThreeYs[2]);
 
                     mAnglesCount++;
                     if (angle < Math.PI - ANGLE_DEVIATION) {
@@ -49,5 +49,15 @@ public abstract class Classifier {
     public void onSensorChanged(SensorEvent event) {
     }
 
+    /**
+     * Informs the classifier that the proximity sensor changed. Used instead of
+     * {@link #onSensorChanged} when the classifiers run on a background thread.
+     *
+     * @param near is the sensor showing the near state right now
+     * @param timestampNano time of this event in nanoseconds
+     */
+    public void onProximityChanged(boolean near, long timestampNano) {
+    }
+
     public abstract String getTag();
 }
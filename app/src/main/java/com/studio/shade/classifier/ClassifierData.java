@@ -28,6 +28,7 @@ import java.util.ArrayList;
 public class ClassifierData {
     private SparseArray<Stroke> mCurrentStrokes = new SparseArray<>();
     private ArrayList<Stroke> mEndingStrokes = new ArrayList<>();
+    private final ArrayList<Stroke> mStrokePool = new ArrayList<>();
     private final float mDpi;
 
     public ClassifierData(float dpi) {
@@ -38,13 +39,16 @@ public class ClassifierData {
         mEndingStrokes.clear();
         int action = event.getActionMasked();
         if (action == MotionEvent.ACTION_DOWN) {
+            for (int i = mCurrentStrokes.size() - 1; i >= 0; i--) {
+                recycleStroke(mCurrentStrokes.valueAt(i));
+            }
             mCurrentStrokes.clear();
         }
 
         for (int i = 0; i < event.getPointerCount(); i++) {
             int id = event.getPointerId(i);
             if (mCurrentStrokes.get(id) == null) {
-                mCurrentStrokes.put(id, new Stroke(event.getEventTimeNano(), mDpi));
+                mCurrentStrokes.put(id, obtainStroke(event.getEventTimeNano(), id));
             }
             mCurrentStrokes.get(id).addPoint(event.getX(i), event.getY(i),
                     event.getEventTimeNano());
@@ -63,11 +67,28 @@ public class ClassifierData {
             int id = event.getPointerId(i);
             if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL
                     || (action == MotionEvent.ACTION_POINTER_UP && i == event.getActionIndex())) {
-                mCurrentStrokes.remove(id);
+                Stroke stroke = mCurrentStrokes.get(id);
+                if (stroke != null) {
+                    mCurrentStrokes.remove(id);
+                    recycleStroke(stroke);
+                }
             }
         }
     }
 
+    private Stroke obtainStroke(long eventTimeNano, int pointerId) {
+        int size = mStrokePool.size();
+        Stroke stroke = size > 0
+                ? mStrokePool.remove(size - 1)
+                : new Stroke(eventTimeNano, mDpi);
+        stroke.reset(eventTimeNano, pointerId);
+        return stroke;
+    }
+
+    private void recycleStroke(Stroke stroke) {
+        mStrokePool.add(stroke);
+    }
+
     /**
      * @return the list of Strokes which are ending in the recently added MotionEvent
      */
@@ -22,21 +22,20 @@ import android.os.Build;
 import android.os.SystemProperties;
 import android.util.Log;
 
+import com.studio.shade.EventRing;
+
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
-import java.util.ArrayDeque;
 import java.util.Date;
-import java.util.Locale;
 
 /**
- * Keeps track of interesting falsing data.
+ * Keeps track of interesting falsing data. Events are recorded into an {@link EventRing} and
+ * only formatted when the log is dumped, so the log is cheap enough to stay enabled.
  *
- * By default the log only gets collected on userdebug builds. To turn it on on user:
- *  adb shell setprop debug.falsing_log true
+ * To turn the log off:
+ *  adb shell setprop debug.falsing_log false
  *
  * The log gets dumped as part of the SystemUI services. To dump on demand:
  *  adb shell dumpsys activity service com.studio.shade SystemBars | grep -A 999 FALSING | less
@@ -48,21 +47,59 @@ import java.util.Locale;
  *  adb shell setprop debug.falsing_log_size 200
  */
 public class FalsingLog {
-    public static final boolean ENABLED = SystemProperties.getBoolean("debug.falsing_log",
-            Build.IS_DEBUGGABLE);
+    public static final boolean ENABLED = SystemProperties.getBoolean("debug.falsing_log", true);
     private static final boolean LOGCAT = SystemProperties.getBoolean("debug.falsing_logcat",
             false);
 
     public static final boolean VERBOSE = false;
 
-    private static final int MAX_SIZE = SystemProperties.getInt("debug.falsing_log_size", 100);
+    private static final int MAX_SIZE = SystemProperties.getInt("debug.falsing_log_size", 512);
 
     private static final String TAG = "FalsingLog";
 
-    private final ArrayDeque<String> mLog = new ArrayDeque<>(MAX_SIZE);
-    private final SimpleDateFormat mFormat = new SimpleDateFormat("MM-dd HH:mm:ss", Locale.US);
+    private static final String[] LEVELS = { "V", "I", "W", "E" };
+    private static final int LEVEL_V = 0;
+    private static final int LEVEL_I = 1;
+    private static final int LEVEL_W = 2;
+    private static final int LEVEL_E = 3;
+
+    private static final int EVENT_MESSAGE = 0;
+    private static final int EVENT_CLASSIFIER = 1;
+    private static final int EVENT_EVALUATION = 2;
+    private static final int EVENT_RESULT = 3;
+
+    private static final EventRing.EventFormatter FORMATTER = new EventRing.EventFormatter() {
+        @Override
+        public void format(PrintWriter pw, int event, long arg0, long arg1, long arg2,
+                Object obj0, Object obj1) {
+            switch (event) {
+                case EVENT_MESSAGE:
+                    pw.print(LEVELS[(int) arg0]); pw.print(' ');
+                    pw.print(obj0); pw.print(' '); pw.print(obj1);
+                    break;
+                case EVENT_CLASSIFIER: {
+                    float e = Float.intBitsToFloat((int) arg1);
+                    String tag = (String) obj1;
+                    pw.print("I  addTouchEvent "); pw.print(obj0); pw.print(' ');
+                    pw.print(e >= 1f ? tag : tag.toLowerCase()); pw.print('='); pw.print(e);
+                    break;
+                }
+                case EVENT_EVALUATION:
+                    pw.print("I  addTouchEvent "); pw.print(obj0);
+                    pw.print(" total="); pw.print(Float.intBitsToFloat((int) arg0));
+                    break;
+                case EVENT_RESULT:
+                    pw.print("I isFalseTouch eval="); pw.print(Float.intBitsToFloat((int) arg0));
+                    pw.print(" result="); pw.print(arg1);
+                    break;
+                default:
+                    pw.print("unknown event "); pw.print(event);
+                    break;
+            }
+        }
+    };
 
-    private static FalsingLog sInstance;
+    private static final EventRing sRing = new EventRing(MAX_SIZE, FORMATTER);
 
     private FalsingLog() {
     }
@@ -74,62 +111,91 @@ public class FalsingLog {
         if (LOGCAT) {
             Log.v(TAG, tag + "\t" + s);
         }
-        log("V", tag, s);
+        log(LEVEL_V, tag, s);
     }
 
     public static void i(String tag, String s) {
         if (LOGCAT) {
             Log.i(TAG, tag + "\t" + s);
         }
-        log("I", tag, s);
+        log(LEVEL_I, tag, s);
     }
 
     public static void w(String tag, String s) {
         if (LOGCAT) {
             Log.w(TAG, tag + "\t" + s);
         }
-        log("W", tag, s);
+        log(LEVEL_W, tag, s);
     }
 
     public static void e(String tag, String s) {
         if (LOGCAT) {
             Log.e(TAG, tag + "\t" + s);
         }
-        log("E", tag, s);
+        log(LEVEL_E, tag, s);
+    }
+
+    private static void log(int level, String tag, String s) {
+        if (!ENABLED) {
+            return;
+        }
+        sRing.record(EVENT_MESSAGE, level, 0, 0, tag, s);
     }
 
-    public static synchronized void log(String level, String tag, String s) {
+    /**
+     * Logs the evaluation of a single classifier for a stroke or a gesture.
+     *
+     * @param kind either "stroke" or "gesture"
+     */
+    public static void classifier(String kind, String classifierTag, float evaluation) {
         if (!ENABLED) {
             return;
         }
-        if (sInstance == null) {
-            sInstance = new FalsingLog();
+        if (LOGCAT) {
+            Log.i(TAG, " addTouchEvent\t" + kind + " " + classifierTag + "=" + evaluation);
         }
+        sRing.record(EVENT_CLASSIFIER, 0, Float.floatToRawIntBits(evaluation), 0, kind,
+                classifierTag);
+    }
 
-        if (sInstance.mLog.size() >= MAX_SIZE) {
-            sInstance.mLog.removeFirst();
+    /**
+     * Logs the sum of all classifier evaluations of a stroke or a gesture.
+     *
+     * @param kind either "stroke" or "gesture"
+     */
+    public static void evaluation(String kind, float evaluation) {
+        if (!ENABLED) {
+            return;
+        }
+        if (LOGCAT) {
+            Log.i(TAG, " addTouchEvent\t" + kind + " total=" + evaluation);
         }
-        String entry = new StringBuilder().append(sInstance.mFormat.format(new Date()))
-            .append(" ").append(level).append(" ")
-            .append(tag).append(" ").append(s).toString();
-        sInstance.mLog.add(entry);
+        sRing.record(EVENT_EVALUATION, Float.floatToRawIntBits(evaluation), 0, 0, kind, null);
     }
 
-    public static synchronized void dump(PrintWriter pw) {
+    public static void falseTouchResult(float evaluation, boolean result) {
+        if (!ENABLED) {
+            return;
+        }
+        if (LOGCAT) {
+            Log.i(TAG, "isFalseTouch\teval=" + evaluation + " result=" + (result ? 1 : 0));
+        }
+        sRing.record(EVENT_RESULT, Float.floatToRawIntBits(evaluation), result ? 1 : 0, 0);
+    }
+
+    public static void dump(PrintWriter pw) {
         pw.println("FALSING LOG:");
         if (!ENABLED) {
             pw.println("Disabled, to enable: setprop debug.falsing_log 1");
             pw.println();
             return;
         }
-        if (sInstance == null || sInstance.mLog.isEmpty()) {
+        if (sRing.isEmpty()) {
             pw.println("<empty>");
             pw.println();
             return;
         }
-        for (String s : sInstance.mLog) {
-            pw.println(s);
-        }
+        sRing.dump(pw, "");
         pw.println();
     }
 
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 
 /**
  * Holds the evaluations for ended strokes and gestures. These values are decreased through time.
+ * The evaluation may be read from a different thread than the one adding strokes and gestures.
  */
 public class HistoryEvaluator {
     private static final float INTERVAL = 50.0f;
@@ -28,26 +29,38 @@ public class HistoryEvaluator {
 
     private final ArrayList<Data> mStrokes = new ArrayList<>();
     private final ArrayList<Data> mGestureWeights = new ArrayList<>();
+    private final ArrayList<Data> mDataPool = new ArrayList<>();
     private long mLastUpdate;
 
     public HistoryEvaluator() {
         mLastUpdate = System.currentTimeMillis();
     }
 
-    public void addStroke(float evaluation) {
+    public synchronized void addStroke(float evaluation) {
         decayValue();
-        mStrokes.add(new Data(evaluation));
+        mStrokes.add(obtainData(evaluation));
     }
 
-    public void addGesture(float evaluation) {
+    public synchronized void addGesture(float evaluation) {
         decayValue();
-        mGestureWeights.add(new Data(evaluation));
+        mGestureWeights.add(obtainData(evaluation));
+    }
+
+    private Data obtainData(float evaluation) {
+        int size = mDataPool.size();
+        if (size == 0) {
+            return new Data(evaluation);
+        }
+        Data data = mDataPool.remove(size - 1);
+        data.evaluation = evaluation;
+        data.weight = 1.0f;
+        return data;
     }
 
     /**
      * Calculates the weighted average of strokes and adds to it the weighted average of gestures
      */
-    public float getEvaluation() {
+    public synchronized float getEvaluation() {
         return weightedAverage(mStrokes) + weightedAverage(mGestureWeights);
     }
 
@@ -88,7 +101,7 @@ public class HistoryEvaluator {
 
         // Removing evaluations with such small weights that they do not matter anymore
         while (!list.isEmpty() && isZero(list.get(0).weight)) {
-            list.remove(0);
+            mDataPool.add(list.remove(0));
         }
     }
 
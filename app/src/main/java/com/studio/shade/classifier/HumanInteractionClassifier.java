@@ -18,8 +18,10 @@ package com.studio.shade.classifier;
 
 import android.content.Context;
 import android.database.ContentObserver;
+import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.os.Handler;
+import android.os.Process;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.util.DisplayMetrics;
@@ -28,17 +30,32 @@ import android.view.MotionEvent;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * An classifier trying to determine whether it is a human interacting with the phone or not.
  */
 public class HumanInteractionClassifier extends Classifier {
     private static final String HIC_ENABLE = "HIC_enable";
+    private static final String HIC_ASYNC = "HIC_async";
     private static final float FINGER_DISTANCE = 0.1f;
 
     /** Default value for the HIC_ENABLE setting: 1 - enabled, 0 - disabled */
     private static final int HIC_ENABLE_DEFAULT = 1;
 
+    /**
+     * Default value for the HIC_ASYNC setting: 1 - evaluate on a background thread, 0 - evaluate
+     * on the main thread. Only read when the classifier is created.
+     */
+    private static final int HIC_ASYNC_DEFAULT = 0;
+
+    /** How many samples can be waiting for the evaluator thread before the main thread stalls */
+    private static final int SAMPLE_QUEUE_CAPACITY = 256;
+
+    /** The longest time isFalseTouch waits for the evaluator thread to catch up */
+    private static final long MAX_VERDICT_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
     private static HumanInteractionClassifier sInstance = null;
 
     private final Handler mHandler = new Handler();
@@ -48,6 +65,7 @@ public class HumanInteractionClassifier extends Classifier {
     private final GestureClassifier[] mGestureClassifiers;
     private final ArrayDeque<MotionEvent> mBufferedEvents = new ArrayDeque<>();
     private final HistoryEvaluator mHistoryEvaluator;
+    private final AsyncEvaluator mAsyncEvaluator;
     private final float mDpi;
 
     private boolean mEnableClassifier = false;
@@ -95,6 +113,10 @@ public class HumanInteractionClassifier extends Classifier {
                 UserHandle.USER_ALL);
 
         updateConfiguration();
+
+        boolean async = 0 != Settings.Global.getInt(mContext.getContentResolver(), HIC_ASYNC,
+                HIC_ASYNC_DEFAULT);
+        mAsyncEvaluator = async ? new AsyncEvaluator() : null;
     }
 
     public static HumanInteractionClassifier getInstance(Context context) {
@@ -111,7 +133,12 @@ public class HumanInteractionClassifier extends Classifier {
     }
 
     public void setType(int type) {
-        mCurrentType = type;
+        if (mAsyncEvaluator != null) {
+            // The type has to be applied in order with the queued touch events.
+            mAsyncEvaluator.enqueueType(type);
+        } else {
+            mCurrentType = type;
+        }
     }
 
     @Override
@@ -119,6 +146,14 @@ public class HumanInteractionClassifier extends Classifier {
         if (!mEnableClassifier) {
             return;
         }
+        if (mAsyncEvaluator != null) {
+            mAsyncEvaluator.enqueueTouchEvent(event);
+        } else {
+            handleTouchEvent(event);
+        }
+    }
+
+    private void handleTouchEvent(MotionEvent event) {
 
         // If the user is dragging down the notification, they might want to drag it down
         // enough to see the content, read it for a while and then lift the finger to open
@@ -128,20 +163,25 @@ public class HumanInteractionClassifier extends Classifier {
         // up, the last MotionEvent which was far enough from the finger is set as the final
         // MotionEvent and sent to the Classifiers.
         if (mCurrentType == Classifier.NOTIFICATION_DRAG_DOWN) {
+            // The copies are recycled once they are consumed, so MotionEvent.obtain can serve
+            // them from its pool instead of allocating a new event for every move.
             mBufferedEvents.add(MotionEvent.obtain(event));
-            Point pointEnd = new Point(event.getX() / mDpi, event.getY() / mDpi);
+            float endX = event.getX() / mDpi;
+            float endY = event.getY() / mDpi;
 
-            while (pointEnd.dist(new Point(mBufferedEvents.getFirst().getX() / mDpi,
-                    mBufferedEvents.getFirst().getY() / mDpi)) > FINGER_DISTANCE) {
+            while (Point.dist(endX, endY, mBufferedEvents.getFirst().getX() / mDpi,
+                    mBufferedEvents.getFirst().getY() / mDpi) > FINGER_DISTANCE) {
                 addTouchEvent(mBufferedEvents.getFirst());
-                mBufferedEvents.remove();
+                mBufferedEvents.remove().recycle();
             }
 
             int action = event.getActionMasked();
             if (action == MotionEvent.ACTION_UP) {
                 mBufferedEvents.getFirst().setAction(MotionEvent.ACTION_UP);
                 addTouchEvent(mBufferedEvents.getFirst());
-                mBufferedEvents.clear();
+                while (!mBufferedEvents.isEmpty()) {
+                    mBufferedEvents.remove().recycle();
+                }
             }
         } else {
             addTouchEvent(event);
@@ -163,18 +203,16 @@ public class HumanInteractionClassifier extends Classifier {
         for (int i = 0; i < size; i++) {
             Stroke stroke = mClassifierData.getEndingStrokes().get(i);
             float evaluation = 0.0f;
-            StringBuilder sb = FalsingLog.ENABLED ? new StringBuilder("stroke") : null;
             for (StrokeClassifier c : mStrokeClassifiers) {
                 float e = c.getFalseTouchEvaluation(mCurrentType, stroke);
                 if (FalsingLog.ENABLED) {
-                    String tag = c.getTag();
-                    sb.append(" ").append(e >= 1f ? tag : tag.toLowerCase()).append("=").append(e);
+                    FalsingLog.classifier("stroke", c.getTag(), e);
                 }
                 evaluation += e;
             }
 
             if (FalsingLog.ENABLED) {
-                FalsingLog.i(" addTouchEvent", sb.toString());
+                FalsingLog.evaluation("stroke", evaluation);
             }
             mHistoryEvaluator.addStroke(evaluation);
         }
@@ -182,20 +220,18 @@ public class HumanInteractionClassifier extends Classifier {
         int action = event.getActionMasked();
         if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
             float evaluation = 0.0f;
-            StringBuilder sb = FalsingLog.ENABLED ? new StringBuilder("gesture") : null;
             for (GestureClassifier c : mGestureClassifiers) {
                 float e = c.getFalseTouchEvaluation(mCurrentType);
                 if (FalsingLog.ENABLED) {
-                    String tag = c.getTag();
-                    sb.append(" ").append(e >= 1f ? tag : tag.toLowerCase()).append("=").append(e);
+                    FalsingLog.classifier("gesture", c.getTag(), e);
                 }
                 evaluation += e;
             }
             if (FalsingLog.ENABLED) {
-                FalsingLog.i(" addTouchEvent", sb.toString());
+                FalsingLog.evaluation("gesture", evaluation);
             }
             mHistoryEvaluator.addGesture(evaluation);
-            setType(Classifier.GENERIC);
+            mCurrentType = Classifier.GENERIC;
         }
 
         mClassifierData.cleanUp(event);
@@ -203,6 +239,14 @@ public class HumanInteractionClassifier extends Classifier {
 
     @Override
     public void onSensorChanged(SensorEvent event) {
+        if (mAsyncEvaluator != null) {
+            // Sensor events are reused once delivered, so only the proximity state is queued.
+            if (event.sensor.getType() == Sensor.TYPE_PROXIMITY) {
+                mAsyncEvaluator.enqueueProximity(
+                        event.values[0] < event.sensor.getMaximumRange(), event.timestamp);
+            }
+            return;
+        }
         for (Classifier c : mStrokeClassifiers) {
             c.onSensorChanged(event);
         }
@@ -212,14 +256,26 @@ public class HumanInteractionClassifier extends Classifier {
         }
     }
 
+    private void onProximityChanged(boolean near, long timestampNano) {
+        for (Classifier c : mStrokeClassifiers) {
+            c.onProximityChanged(near, timestampNano);
+        }
+
+        for (Classifier c : mGestureClassifiers) {
+            c.onProximityChanged(near, timestampNano);
+        }
+    }
+
     public boolean isFalseTouch() {
         if (mEnableClassifier) {
+            if (mAsyncEvaluator != null
+                    && !mAsyncEvaluator.awaitEvaluation(MAX_VERDICT_WAIT_NANOS)) {
+                FalsingLog.w("isFalseTouch", "evaluator did not catch up, using partial history");
+            }
             float evaluation = mHistoryEvaluator.getEvaluation();
             boolean result = evaluation >= 5.0f;
             if (FalsingLog.ENABLED) {
-                FalsingLog.i("isFalseTouch", new StringBuilder()
-                        .append("eval=").append(evaluation).append(" result=")
-                        .append(result ? 1 : 0).toString());
+                FalsingLog.falseTouchResult(evaluation, result);
             }
             return result;
         }
@@ -234,4 +290,150 @@ public class HumanInteractionClassifier extends Classifier {
     public String getTag() {
         return "HIC";
     }
+
+    /**
+     * A touch event, type change or proximity change waiting to be evaluated.
+     */
+    private static final class Sample {
+        static final int TOUCH = 0;
+        static final int TYPE = 1;
+        static final int PROXIMITY = 2;
+
+        int kind;
+        MotionEvent event;
+        int type;
+        boolean near;
+        long timestampNano;
+    }
+
+    /**
+     * Runs the classifiers on a dedicated thread. The main thread only copies the samples into a
+     * lock-free queue, so input dispatch doesn't depend on how expensive the classifiers are.
+     * All samples are produced on the main thread, which is also the only one reading the
+     * verdict.
+     */
+    private final class AsyncEvaluator implements Runnable {
+        private final SpscQueue<Sample> mQueue = new SpscQueue<>(SAMPLE_QUEUE_CAPACITY);
+        private final SpscQueue<Sample> mFreeSamples = new SpscQueue<>(SAMPLE_QUEUE_CAPACITY);
+        private final Thread mThread;
+
+        /** Number of queued samples, only accessed by the main thread */
+        private long mEnqueuedCount;
+        /** Number of evaluated samples, only written by the evaluator thread */
+        private volatile long mEvaluatedCount;
+        private volatile boolean mParked;
+        private volatile Thread mVerdictWaiter;
+
+        AsyncEvaluator() {
+            mThread = new Thread(this, "FalsingEvaluator");
+            mThread.start();
+        }
+
+        void enqueueTouchEvent(MotionEvent event) {
+            Sample sample = obtainSample(Sample.TOUCH);
+            sample.event = MotionEvent.obtain(event);
+            enqueue(sample);
+        }
+
+        void enqueueType(int type) {
+            Sample sample = obtainSample(Sample.TYPE);
+            sample.type = type;
+            enqueue(sample);
+        }
+
+        void enqueueProximity(boolean near, long timestampNano) {
+            Sample sample = obtainSample(Sample.PROXIMITY);
+            sample.near = near;
+            sample.timestampNano = timestampNano;
+            enqueue(sample);
+        }
+
+        /**
+         * Waits until all samples queued so far are evaluated.
+         *
+         * @return false if the evaluator didn't catch up within the timeout
+         */
+        boolean awaitEvaluation(long timeoutNanos) {
+            final long target = mEnqueuedCount;
+            if (mEvaluatedCount >= target) {
+                return true;
+            }
+            final long deadline = System.nanoTime() + timeoutNanos;
+            mVerdictWaiter = Thread.currentThread();
+            try {
+                while (mEvaluatedCount < target) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+                return true;
+            } finally {
+                mVerdictWaiter = null;
+            }
+        }
+
+        private Sample obtainSample(int kind) {
+            Sample sample = mFreeSamples.poll();
+            if (sample == null) {
+                sample = new Sample();
+            }
+            sample.kind = kind;
+            return sample;
+        }
+
+        private void enqueue(Sample sample) {
+            while (!mQueue.offer(sample)) {
+                // Dropping samples would break up strokes, so rather let the evaluator catch up.
+                LockSupport.unpark(mThread);
+                Thread.yield();
+            }
+            mEnqueuedCount++;
+            if (mParked) {
+                LockSupport.unpark(mThread);
+            }
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+            while (true) {
+                Sample sample = mQueue.poll();
+                if (sample == null) {
+                    mParked = true;
+                    // The main thread might have queued a sample before it saw mParked.
+                    if (mQueue.isEmpty()) {
+                        LockSupport.park(this);
+                    }
+                    mParked = false;
+                    continue;
+                }
+                evaluate(sample);
+                mEvaluatedCount++;
+                Thread waiter = mVerdictWaiter;
+                if (waiter != null) {
+                    LockSupport.unpark(waiter);
+                }
+                // If the pool is full the sample is simply left to the garbage collector.
+                mFreeSamples.offer(sample);
+            }
+        }
+
+        private void evaluate(Sample sample) {
+            switch (sample.kind) {
+                case Sample.TOUCH:
+                    handleTouchEvent(sample.event);
+                    sample.event.recycle();
+                    sample.event = null;
+                    break;
+                case Sample.TYPE:
+                    mCurrentType = sample.type;
+                    break;
+                case Sample.PROXIMITY:
+                    onProximityChanged(sample.near, sample.timestampNano);
+                    break;
+            }
+        }
+    }
 }
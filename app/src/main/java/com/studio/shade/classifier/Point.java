@@ -38,7 +38,11 @@ public class Point {
     }
 
     public float dist(Point a) {
-        return (float) Math.hypot(a.x - x, a.y - y);
+        return dist(x, y, a.x, a.y);
+    }
+
+    public static float dist(float x1, float y1, float x2, float y2) {
+        return (float) Math.hypot(x2 - x1, y2 - y1);
     }
 
     /**
@@ -64,15 +68,23 @@ public class Point {
      * @return the angle in radians
      */
     public float getAngle(Point a, Point b) {
-        float dist1 = dist(a);
-        float dist2 = dist(b);
+        return getAngle(x, y, a.x, a.y, b.x, b.y);
+    }
+
+    /**
+     * Same as {@link #getAngle(Point, Point)} for the points (ax, ay), (x, y) and (bx, by), without
+     * having to create {@link Point} objects.
+     */
+    public static float getAngle(float x, float y, float ax, float ay, float bx, float by) {
+        float dist1 = dist(x, y, ax, ay);
+        float dist2 = dist(x, y, bx, by);
 
         if (dist1 == 0.0f || dist2 == 0.0f) {
             return 0.0f;
         }
 
-        float crossProduct = crossProduct(a, b);
-        float dotProduct = dotProduct(a, b);
+        float crossProduct = (ax - x) * (by - y) - (ay - y) * (bx - x);
+        float dotProduct = (ax - x) * (bx - x) + (ay - y) * (by - y);
         float cos = Math.min(1.0f, Math.max(-1.0f, dotProduct / dist1 / dist2));
         float angle = (float) Math.acos(cos);
         if (crossProduct < 0.0) {
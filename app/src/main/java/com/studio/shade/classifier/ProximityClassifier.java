@@ -46,6 +46,11 @@ public class ProximityClassifier extends GestureClassifier {
         }
     }
 
+    @Override
+    public void onProximityChanged(boolean near, long timestampNano) {
+        update(near, timestampNano);
+    }
+
     @Override
     public void onTouchEvent(MotionEvent event) {
         int action = event.getActionMasked();
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.studio.shade.classifier;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded lock-free queue for exactly one producer thread and one consumer thread. Only the
+ * producer may call {@link #offer} and only the consumer may call {@link #poll}.
+ */
+class SpscQueue<T> {
+    private final Object[] mItems;
+    private final int mMask;
+
+    /** Index of the next item to poll, only written by the consumer. */
+    private final AtomicLong mHead = new AtomicLong();
+    /** Index of the next item to offer, only written by the producer. */
+    private final AtomicLong mTail = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of queued items, rounded up to a power of two
+     */
+    public SpscQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mItems = new Object[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * @return false if the queue is full
+     */
+    public boolean offer(T item) {
+        long tail = mTail.get();
+        if (tail - mHead.get() == mItems.length) {
+            return false;
+        }
+        mItems[(int) tail & mMask] = item;
+        // The volatile write publishes the item to the consumer.
+        mTail.set(tail + 1);
+        return true;
+    }
+
+    /**
+     * @return the oldest item or null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long head = mHead.get();
+        if (head == mTail.get()) {
+            return null;
+        }
+        int index = (int) head & mMask;
+        T item = (T) mItems[index];
+        mItems[index] = null;
+        mHead.set(head + 1);
+        return item;
+    }
+
+    public boolean isEmpty() {
+        return mHead.get() == mTail.get();
+    }
+}
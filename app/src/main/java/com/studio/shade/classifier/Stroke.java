@@ -16,16 +16,24 @@
 
 package com.studio.shade.classifier;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Contains data about a stroke (a single trace, all the events from a given id from the
  * DOWN/POINTER_DOWN event till the UP/POINTER_UP/CANCEL event.)
+ *
+ * The points are kept in primitive arrays which are retained when the stroke is reused through
+ * {@link #reset}, so a pooled stroke doesn't allocate once its arrays are large enough.
  */
 public class Stroke {
+    private static final int INITIAL_CAPACITY = 32;
     private final float NANOS_TO_SECONDS = 1e9f;
 
-    private ArrayList<Point> mPoints = new ArrayList<>();
+    private float[] mXs = new float[INITIAL_CAPACITY];
+    private float[] mYs = new float[INITIAL_CAPACITY];
+    private long[] mTimeOffsetsNano = new long[INITIAL_CAPACITY];
+    private int mCount;
+    private int mPointerId;
     private long mStartTimeNano;
     private long mEndTimeNano;
     private float mLength;
@@ -36,17 +44,44 @@ public class Stroke {
         mStartTimeNano = mEndTimeNano = eventTimeNano;
     }
 
+    /**
+     * Clears the stroke such that it can be reused for a new pointer.
+     */
+    public void reset(long eventTimeNano, int pointerId) {
+        mStartTimeNano = mEndTimeNano = eventTimeNano;
+        mPointerId = pointerId;
+        mCount = 0;
+        mLength = 0.0f;
+    }
+
     public void addPoint(float x, float y, long eventTimeNano) {
         mEndTimeNano = eventTimeNano;
-        Point point = new Point(x / mDpi, y / mDpi, eventTimeNano - mStartTimeNano);
-        if (!mPoints.isEmpty()) {
-            mLength += mPoints.get(mPoints.size() - 1).dist(point);
+        if (mCount == mXs.length) {
+            int capacity = mCount * 2;
+            mXs = Arrays.copyOf(mXs, capacity);
+            mYs = Arrays.copyOf(mYs, capacity);
+            mTimeOffsetsNano = Arrays.copyOf(mTimeOffsetsNano, capacity);
+        }
+        x /= mDpi;
+        y /= mDpi;
+        if (mCount > 0) {
+            mLength += Point.dist(mXs[mCount - 1], mYs[mCount - 1], x, y);
         }
-        mPoints.add(point);
+        mXs[mCount] = x;
+        mYs[mCount] = y;
+        mTimeOffsetsNano[mCount] = eventTimeNano - mStartTimeNano;
+        mCount++;
     }
 
     public int getCount() {
-        return mPoints.size();
+        return mCount;
+    }
+
+    /**
+     * @return the id of the pointer this stroke belongs to
+     */
+    public int getPointerId() {
+        return mPointerId;
     }
 
     public float getTotalLength() {
@@ -54,7 +89,7 @@ public class Stroke {
     }
 
     public float getEndPointLength() {
-        return mPoints.get(0).dist(mPoints.get(mPoints.size() - 1));
+        return Point.dist(mXs[0], mYs[0], mXs[mCount - 1], mYs[mCount - 1]);
     }
 
     public long getDurationNanos() {
@@ -65,7 +100,24 @@ public class Stroke {
         return (float) getDurationNanos() / NANOS_TO_SECONDS;
     }
 
-    public ArrayList<Point> getPoints() {
-        return mPoints;
+    /**
+     * @return the x coordinate of the point at the given index, in inches
+     */
+    public float getX(int index) {
+        return mXs[index];
+    }
+
+    /**
+     * @return the y coordinate of the point at the given index, in inches
+     */
+    public float getY(int index) {
+        return mYs[index];
+    }
+
+    /**
+     * @return the time of the point at the given index relative to the start of the stroke
+     */
+    public long getTimeOffsetNano(int index) {
+        return mTimeOffsetsNano[index];
     }
 }
@@ -21,16 +21,16 @@ import android.os.Build;
 import android.util.Log;
 import android.util.TimeUtils;
 
+import com.studio.shade.EventRing;
+
 import java.io.PrintWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.StringWriter;
 
 public class DozeLog {
     private static final String TAG = "DozeLog";
     private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
     private static final boolean ENABLED = true;
     private static final int SIZE = Build.IS_DEBUGGABLE ? 400 : 50;
-    private static final SimpleDateFormat FORMAT = new SimpleDateFormat("MM-dd HH:mm:ss.SSS");
 
     private static final int PULSE_REASONS = 4;
 
@@ -39,10 +39,69 @@ public class DozeLog {
     public static final int PULSE_REASON_SENSOR_SIGMOTION = 2;
     public static final int PULSE_REASON_SENSOR_PICKUP = 3;
 
-    private static long[] sTimes;
-    private static String[] sMessages;
-    private static int sPosition;
-    private static int sCount;
+    private static final int EVENT_INIT = 0;
+    private static final int EVENT_PICKUP_PULSE = 1;
+    private static final int EVENT_PULSE_START = 2;
+    private static final int EVENT_PULSE_FINISH = 3;
+    private static final int EVENT_NOTIFICATION_PULSE = 4;
+    private static final int EVENT_DOZING = 5;
+    private static final int EVENT_FLING = 6;
+    private static final int EVENT_EMERGENCY_CALL = 7;
+    private static final int EVENT_SCREEN_ON = 8;
+    private static final int EVENT_SCREEN_OFF = 9;
+    private static final int EVENT_PROXIMITY_RESULT = 10;
+
+    private static final EventRing.EventFormatter FORMATTER = new EventRing.EventFormatter() {
+        @Override
+        public void format(PrintWriter pw, int event, long arg0, long arg1, long arg2,
+                Object obj0, Object obj1) {
+            switch (event) {
+                case EVENT_INIT:
+                    pw.print("init");
+                    break;
+                case EVENT_PICKUP_PULSE:
+                    pw.print("pickupPulse withinVibrationThreshold="); pw.print(arg0 != 0);
+                    break;
+                case EVENT_PULSE_START:
+                    pw.print("pulseStart reason="); pw.print(pulseReasonToString((int) arg0));
+                    break;
+                case EVENT_PULSE_FINISH:
+                    pw.print("pulseFinish");
+                    break;
+                case EVENT_NOTIFICATION_PULSE:
+                    pw.print("notificationPulse instance="); pw.print(arg0);
+                    break;
+                case EVENT_DOZING:
+                    pw.print("dozing "); pw.print(arg0 != 0);
+                    break;
+                case EVENT_FLING:
+                    pw.print("fling expand="); pw.print((arg0 & 1) != 0);
+                    pw.print(" aboveThreshold="); pw.print((arg0 & 2) != 0);
+                    pw.print(" thresholdNeeded="); pw.print((arg0 & 4) != 0);
+                    pw.print(" screenOnFromTouch="); pw.print((arg0 & 8) != 0);
+                    break;
+                case EVENT_EMERGENCY_CALL:
+                    pw.print("emergencyCall");
+                    break;
+                case EVENT_SCREEN_ON:
+                    pw.print("screenOn pulsing="); pw.print(arg0 != 0);
+                    break;
+                case EVENT_SCREEN_OFF:
+                    pw.print("screenOff why="); pw.print(arg0);
+                    break;
+                case EVENT_PROXIMITY_RESULT:
+                    pw.print("proximityResult reason="); pw.print(pulseReasonToString((int) arg0));
+                    pw.print(" near="); pw.print(arg1 != 0);
+                    pw.print(" millis="); pw.print(arg2);
+                    break;
+                default:
+                    pw.print("unknown event "); pw.print(event);
+                    break;
+            }
+        }
+    };
+
+    private static volatile EventRing sRing;
     private static boolean sPulsing;
 
     private static long sSince;
@@ -56,7 +115,7 @@ public class DozeLog {
 
     public static void tracePickupPulse(boolean withinVibrationThreshold) {
         if (!ENABLED) return;
-        log("pickupPulse withinVibrationThreshold=" + withinVibrationThreshold);
+        log(EVENT_PICKUP_PULSE, withinVibrationThreshold ? 1 : 0, 0, 0);
         (withinVibrationThreshold ? sPickupPulseNearVibrationStats
                 : sPickupPulseNotNearVibrationStats).append();
     }
@@ -64,26 +123,24 @@ public class DozeLog {
     public static void tracePulseStart(int reason) {
         if (!ENABLED) return;
         sPulsing = true;
-        log("pulseStart reason=" + pulseReasonToString(reason));
+        log(EVENT_PULSE_START, reason, 0, 0);
     }
 
     public static void tracePulseFinish() {
         if (!ENABLED) return;
         sPulsing = false;
-        log("pulseFinish");
+        log(EVENT_PULSE_FINISH, 0, 0, 0);
     }
 
     public static void traceNotificationPulse(long instance) {
         if (!ENABLED) return;
-        log("notificationPulse instance=" + instance);
+        log(EVENT_NOTIFICATION_PULSE, instance, 0, 0);
         sNotificationPulseStats.append();
     }
 
     private static void init(Context context) {
         synchronized (DozeLog.class) {
-            if (sMessages == null) {
-                sTimes = new long[SIZE];
-                sMessages = new String[SIZE];
+            if (sRing == null) {
                 sSince = System.currentTimeMillis();
                 sPickupPulseNearVibrationStats = new SummaryStats();
                 sPickupPulseNotNearVibrationStats = new SummaryStats();
@@ -96,7 +153,8 @@ public class DozeLog {
                     sProxStats[i][0] = new SummaryStats();
                     sProxStats[i][1] = new SummaryStats();
                 }
-                log("init");
+                sRing = new EventRing(SIZE, FORMATTER);
+                log(EVENT_INIT, 0, 0, 0);
             }
         }
     }
@@ -105,39 +163,38 @@ public class DozeLog {
         if (!ENABLED) return;
         sPulsing = false;
         init(context);
-        log("dozing " + dozing);
+        log(EVENT_DOZING, dozing ? 1 : 0, 0, 0);
     }
 
     public static void traceFling(boolean expand, boolean aboveThreshold, boolean thresholdNeeded,
             boolean screenOnFromTouch) {
         if (!ENABLED) return;
-        log("fling expand=" + expand + " aboveThreshold=" + aboveThreshold + " thresholdNeeded="
-                + thresholdNeeded + " screenOnFromTouch=" + screenOnFromTouch);
+        log(EVENT_FLING, (expand ? 1 : 0) | (aboveThreshold ? 2 : 0) | (thresholdNeeded ? 4 : 0)
+                | (screenOnFromTouch ? 8 : 0), 0, 0);
     }
 
     public static void traceEmergencyCall() {
         if (!ENABLED) return;
-        log("emergencyCall");
+        log(EVENT_EMERGENCY_CALL, 0, 0, 0);
         sEmergencyCallStats.append();
     }
 
     public static void traceScreenOn() {
         if (!ENABLED) return;
-        log("screenOn pulsing=" + sPulsing);
+        log(EVENT_SCREEN_ON, sPulsing ? 1 : 0, 0, 0);
         (sPulsing ? sScreenOnPulsingStats : sScreenOnNotPulsingStats).append();
         sPulsing = false;
     }
 
     public static void traceScreenOff(int why) {
         if (!ENABLED) return;
-        log("screenOff why=" + why);
+        log(EVENT_SCREEN_OFF, why, 0, 0);
     }
 
     public static void traceProximityResult(Context context, boolean near, long millis,
             int pulseReason) {
         if (!ENABLED) return;
-        log("proximityResult reason=" + pulseReasonToString(pulseReason) + " near=" + near
-                + " millis=" + millis);
+        log(EVENT_PROXIMITY_RESULT, pulseReason, near ? 1 : 0, millis);
         init(context);
         sProxStats[pulseReason][near ? 0 : 1].append();
     }
@@ -154,16 +211,9 @@ public class DozeLog {
 
     public static void dump(PrintWriter pw) {
         synchronized (DozeLog.class) {
-            if (sMessages == null) return;
+            if (sRing == null) return;
             pw.println("  Doze log:");
-            final int start = (sPosition - sCount + SIZE) % SIZE;
-            for (int i = 0; i < sCount; i++) {
-                final int j = (start + i) % SIZE;
-                pw.print("    ");
-                pw.print(FORMAT.format(new Date(sTimes[j])));
-                pw.print(' ');
-                pw.println(sMessages[j]);
-            }
+            sRing.dump(pw, "    ");
             pw.print("  Doze summary stats (for ");
             TimeUtils.formatDuration(System.currentTimeMillis() - sSince, pw);
             pw.println("):");
@@ -181,15 +231,17 @@ public class DozeLog {
         }
     }
 
-    private static void log(String msg) {
-        synchronized (DozeLog.class) {
-            if (sMessages == null) return;
-            sTimes[sPosition] = System.currentTimeMillis();
-            sMessages[sPosition] = msg;
-            sPosition = (sPosition + 1) % SIZE;
-            sCount = Math.min(sCount + 1, SIZE);
+    private static void log(int event, long arg0, long arg1, long arg2) {
+        final EventRing ring = sRing;
+        if (ring == null) return;
+        ring.record(event, arg0, arg1, arg2);
+        if (DEBUG) {
+            StringWriter sw = new StringWriter();
+            PrintWriter pw = new PrintWriter(sw);
+            FORMATTER.format(pw, event, arg0, arg1, arg2, null, null);
+            pw.flush();
+            Log.d(TAG, sw.toString());
         }
-        if (DEBUG) Log.d(TAG, msg);
     }
 
     private static class SummaryStats {
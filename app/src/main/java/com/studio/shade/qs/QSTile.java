@@ -24,6 +24,7 @@ import android.graphics.drawable.Drawable;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.ArraySet;
 import android.util.Log;
 import android.util.SparseArray;
@@ -50,6 +51,7 @@ import com.studio.shade.statusbar.policy.UserInfoController;
 import com.studio.shade.statusbar.policy.UserSwitcherController;
 import com.studio.shade.statusbar.policy.ZenModeController;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Objects;
@@ -61,11 +63,13 @@ import static com.android.settingslib.RestrictedLockUtils.EnforcedAdmin;
  *
  * State management done on a looper provided by the host.  Tiles should update state in
  * handleUpdateState.  Callbacks affecting state should use refreshState to trigger another
- * state update pass on tile looper.
+ * state update pass on tile looper.  The host may spread the tiles over several loopers, so
+ * tiles must not rely on sharing a looper with each other.
  */
 public abstract class QSTile<TState extends State> {
     protected final String TAG = "Tile." + getClass().getSimpleName();
     protected static final boolean DEBUG = Log.isLoggable("Tile", Log.DEBUG);
+    private static final long SLOW_MESSAGE_NANOS = 50 * 1000 * 1000;
 
     protected final Host mHost;
     protected final Context mContext;
@@ -80,6 +84,12 @@ public abstract class QSTile<TState extends State> {
 
     private String mTileSpec;
 
+    // Timing of the messages handled on the tile looper, only written on that looper.
+    private int mHandledCount;
+    private long mHandledTotalNanos;
+    private long mHandledMaxNanos;
+    private String mSlowestMessage;
+
     public abstract TState newTileState();
     abstract protected void handleClick();
     abstract protected void handleUpdateState(TState state, Object arg);
@@ -93,9 +103,17 @@ public abstract class QSTile<TState extends State> {
     abstract public int getMetricsCategory();
 
     protected QSTile(Host host) {
+        this(host, host.getTileLooper());
+    }
+
+    /**
+     * @param looper the looper to compute the state on, for tiles which have to share a looper
+     *        with other components of the host
+     */
+    protected QSTile(Host host, Looper looper) {
         mHost = host;
         mContext = host.getContext();
-        mHandler = new H(host.getLooper());
+        mHandler = new H(looper);
     }
 
     /**
@@ -216,6 +234,13 @@ public abstract class QSTile<TState extends State> {
         return mState;
     }
 
+    /**
+     * Runs the runnable on the tile looper, after the messages already sent to this tile.
+     */
+    public final void postOnTileLooper(Runnable r) {
+        mHandler.post(r);
+    }
+
     public void setDetailListening(boolean listening) {
         // optional
     }
@@ -327,6 +352,30 @@ public abstract class QSTile<TState extends State> {
 
     public abstract CharSequence getTileLabel();
 
+    public void dump(PrintWriter pw) {
+        pw.print("    "); pw.print(mTileSpec);
+        pw.print(" thread="); pw.print(mHandler.getLooper().getThread().getName());
+        pw.print(" handled="); pw.print(mHandledCount);
+        if (mHandledCount > 0) {
+            pw.print(" avg="); pw.print(mHandledTotalNanos / mHandledCount / 1000);
+            pw.print("us max="); pw.print(mHandledMaxNanos / 1000);
+            pw.print("us ("); pw.print(mSlowestMessage); pw.print(")");
+        }
+        pw.println();
+    }
+
+    private void onMessageHandled(String name, long durationNanos) {
+        mHandledCount++;
+        mHandledTotalNanos += durationNanos;
+        if (durationNanos > mHandledMaxNanos) {
+            mHandledMaxNanos = durationNanos;
+            mSlowestMessage = name;
+        }
+        if (DEBUG && durationNanos > SLOW_MESSAGE_NANOS) {
+            Log.d(TAG, name + " took " + durationNanos / 1000000 + "ms");
+        }
+    }
+
     protected final class H extends Handler {
         private static final int ADD_CALLBACK = 1;
         private static final int CLICK = 2;
@@ -350,6 +399,7 @@ public abstract class QSTile<TState extends State> {
         @Override
         public void handleMessage(Message msg) {
             String name = null;
+            final long start = SystemClock.elapsedRealtimeNanos();
             try {
                 if (msg.what == ADD_CALLBACK) {
                     name = "handleAddCallback";
@@ -406,6 +456,8 @@ public abstract class QSTile<TState extends State> {
                 final String error = "Error in " + name;
                 Log.w(TAG, error, t);
                 mHost.warn(error, t);
+            } finally {
+                onMessageHandled(name, SystemClock.elapsedRealtimeNanos() - start);
             }
         }
     }
@@ -424,6 +476,11 @@ public abstract class QSTile<TState extends State> {
         void animateToggleQSExpansion();
         void openPanels();
         Looper getLooper();
+
+        /**
+         * @return the looper a newly created tile should compute its state on
+         */
+        Looper getTileLooper();
         Context getContext();
         Collection<QSTile<?>> getTiles();
         void addCallback(Callback callback);
@@ -49,6 +49,7 @@ public class TileQueryHelper {
     private final ArrayList<String> mSpecs = new ArrayList<>();
     private final Context mContext;
     private TileStateListener mListener;
+    private int mAddedSystemTiles;
 
     public TileQueryHelper(Context context, QSTileHost host) {
         mContext = context;
@@ -60,19 +61,33 @@ public class TileQueryHelper {
         String possible = mContext.getString(R.string.quick_settings_tiles_default)
                 + ",hotspot,inversion,saver,work,cast,night";
         String[] possibleTiles = possible.split(",");
-        final Handler qsHandler = new Handler(host.getLooper());
         final Handler mainHandler = new Handler(Looper.getMainLooper());
+        final ArrayList<String> specs = new ArrayList<>();
+        final ArrayList<QSTile<?>> tiles = new ArrayList<>();
         for (int i = 0; i < possibleTiles.length; i++) {
-            final String spec = possibleTiles[i];
-            final QSTile<?> tile = host.createTile(spec);
+            final QSTile<?> tile = host.createTile(possibleTiles[i]);
             if (tile == null || !tile.isAvailable()) {
                 continue;
             }
+            specs.add(possibleTiles[i]);
+            tiles.add(tile);
+        }
+        if (tiles.isEmpty()) {
+            new QueryTilesTask().execute(host.getTiles());
+            return;
+        }
+        // The tiles may compute their state on different loopers, so read each state on the
+        // looper of its tile. The states are added in order, and the other tiles are only
+        // queried once every state was added.
+        final QSTile.State[] states = new QSTile.State[tiles.size()];
+        for (int i = 0; i < tiles.size(); i++) {
+            final int index = i;
+            final QSTile<?> tile = tiles.get(i);
             tile.setListening(this, true);
             tile.clearState();
             tile.refreshState();
             tile.setListening(this, false);
-            qsHandler.post(new Runnable() {
+            tile.postOnTileLooper(new Runnable() {
                 @Override
                 public void run() {
                     final QSTile.State state = tile.newTileState();
@@ -82,24 +97,22 @@ public class TileQueryHelper {
                     mainHandler.post(new Runnable() {
                         @Override
                         public void run() {
-                            addTile(spec, null, state, true);
+                            states[index] = state;
+                            while (mAddedSystemTiles < states.length
+                                    && states[mAddedSystemTiles] != null) {
+                                addTile(specs.get(mAddedSystemTiles), null,
+                                        states[mAddedSystemTiles], true);
+                                mAddedSystemTiles++;
+                            }
                             mListener.onTilesChanged(mTiles);
+                            if (mAddedSystemTiles == states.length) {
+                                new QueryTilesTask().execute(host.getTiles());
+                            }
                         }
                     });
                 }
             });
         }
-        qsHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                mainHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        new QueryTilesTask().execute(host.getTiles());
-                    }
-                });
-            }
-        });
     }
 
     public void setListener(TileStateListener listener) {
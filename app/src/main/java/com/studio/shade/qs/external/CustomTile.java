@@ -68,7 +68,8 @@ public class CustomTile extends QSTile<QSTile.State> implements TileChangeListen
     private boolean mIsShowingDialog;
 
     private CustomTile(QSTileHost host, String action) {
-        super(host);
+        // The tile service bindings are managed on the host looper.
+        super(host, host.getLooper());
         mWindowManager = WindowManagerGlobal.getWindowManagerService();
         mComponent = ComponentName.unflattenFromString(action);
         mTile = new Tile(mComponent);
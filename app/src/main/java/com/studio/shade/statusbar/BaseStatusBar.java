@@ -50,7 +50,9 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
+import android.os.MessageQueue;
 import android.os.PowerManager;
 import android.os.RemoteException;
 import android.os.ServiceManager;
@@ -73,7 +75,6 @@ import android.util.SparseArray;
 import android.util.SparseBooleanArray;
 import android.view.Display;
 import android.view.IWindowManager;
-import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewAnimationUtils;
@@ -100,6 +101,11 @@ import com.studio.shade.SystemUI;
 import com.studio.shade.assist.AssistManager;
 import com.studio.shade.statusbar.NotificationData.Entry;
 import com.studio.shade.statusbar.NotificationGuts.OnGutsClosedListener;
+import com.studio.shade.statusbar.notification.NotificationContentManager;
+import com.studio.shade.statusbar.notification.NotificationInflater;
+import com.studio.shade.statusbar.notification.NotificationRowPool;
+import com.studio.shade.statusbar.notification.NotificationUpdateClassifier;
+import com.studio.shade.statusbar.notification.NotificationUpdateCoalescer;
 import com.studio.shade.statusbar.phone.NotificationGroupManager;
 import com.studio.shade.statusbar.policy.HeadsUpManager;
 import com.studio.shade.statusbar.policy.PreviewInflater;
@@ -112,12 +118,16 @@ import java.util.List;
 import java.util.Locale;
 
 import static android.service.notification.NotificationListenerService.Ranking.IMPORTANCE_HIGH;
+import static com.studio.shade.statusbar.ExpandableNotificationRow.FLAG_CONTENT_VIEW_EXPANDED;
+import static com.studio.shade.statusbar.ExpandableNotificationRow.FLAG_CONTENT_VIEW_HEADS_UP;
+import static com.studio.shade.statusbar.ExpandableNotificationRow.FLAG_CONTENT_VIEW_PUBLIC;
 
 public abstract class BaseStatusBar extends SystemUI implements
         CommandQueue.Callbacks, ActivatableNotificationView.OnActivatedListener,
         ExpandableNotificationRow.ExpansionLogger, NotificationData.Environment,
         ExpandableNotificationRow.OnExpandClickListener,
-        OnGutsClosedListener {
+        OnGutsClosedListener, NotificationInflater.InflationCallback,
+        ExpandableNotificationRow.LazyContentInflater {
     public static final String TAG = "StatusBar";
     public static final boolean DEBUG = false;
     public static final boolean MULTIUSER_DEBUG = false;
@@ -128,6 +138,16 @@ public abstract class BaseStatusBar extends SystemUI implements
             = SystemProperties.getBoolean("debug.child_notifs", true);
     public static final boolean FORCE_REMOTE_INPUT_HISTORY =
             SystemProperties.getBoolean("debug.force_remoteinput_history", false);
+    public static final boolean ENABLE_ASYNC_INFLATION =
+            SystemProperties.getBoolean("debug.async_notif_inflation", true);
+    public static final boolean ENABLE_LAZY_INFLATION =
+            SystemProperties.getBoolean("debug.lazy_notif_inflation", true);
+    /** How many of the top rows get their expanded view inflated while idle, 0 to disable */
+    private static final int LAZY_INFLATION_PREFETCH_COUNT =
+            SystemProperties.getInt("debug.lazy_notif_prefetch", 3);
+    /** How many rows may keep their expanded, heads up and public views inflated */
+    private static final int CONTENT_VIEW_BUDGET =
+            SystemProperties.getInt("debug.notif_content_budget", 20);
     private static boolean ENABLE_LOCK_SCREEN_ALLOW_REMOTE_INPUT = false;
 
     protected static final int MSG_SHOW_RECENT_APPS = 1019;
@@ -162,7 +182,21 @@ public abstract class BaseStatusBar extends SystemUI implements
 
     // all notifications
     protected NotificationData mNotificationData;
+    protected NotificationInflater mNotificationInflater;
+    protected NotificationRowPool mRowPool;
+    protected NotificationUpdateCoalescer mUpdateCoalescer;
+    protected NotificationContentManager mContentManager;
+    private final ArrayList<Entry> mTmpSortedEntries = new ArrayList<>();
     protected NotificationStackScrollLayout mStackScroller;
+    private boolean mPrefetchScheduled;
+
+    private final MessageQueue.IdleHandler mPrefetchIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            mPrefetchScheduled = prefetchContentViews();
+            return mPrefetchScheduled;
+        }
+    };
 
     protected NotificationGroupManager mGroupManager = new NotificationGroupManager();
 
@@ -612,6 +646,17 @@ public abstract class BaseStatusBar extends SystemUI implements
                 Context.DEVICE_POLICY_SERVICE);
 
         mNotificationData = new NotificationData(this);
+        mNotificationInflater = new NotificationInflater(mOnClickHandler, this);
+        mRowPool = new NotificationRowPool(mContext);
+        mContentManager = new NotificationContentManager(CONTENT_VIEW_BUDGET);
+        mContext.registerComponentCallbacks(mContentManager);
+        mUpdateCoalescer = new NotificationUpdateCoalescer(
+                new NotificationUpdateCoalescer.Callback() {
+                    @Override
+                    public void onApplyUpdate(StatusBarNotification notification) {
+                        applyPartialUpdate(notification);
+                    }
+                });
 
         mAccessibilityManager = (AccessibilityManager)
                 mContext.getSystemService(Context.ACCESSIBILITY_SERVICE);
@@ -652,6 +697,7 @@ public abstract class BaseStatusBar extends SystemUI implements
         }
 
         createAndAddWindows();
+        mRowPool.prewarm(mStackScroller);
 
         mSettingsObserver.onChange(false); // set up
         disable(switches[0], switches[6], false /* animate */);
@@ -824,6 +870,7 @@ public abstract class BaseStatusBar extends SystemUI implements
     }
 
     protected void onDensityOrFontScaleChanged() {
+        mRowPool.clear();
         ArrayList<Entry> activeNotifications = mNotificationData.getActiveNotifications();
         for (int i = 0; i < activeNotifications.size(); i++) {
             Entry entry = activeNotifications.get(i);
@@ -1321,6 +1368,7 @@ public abstract class BaseStatusBar extends SystemUI implements
     protected boolean inflateViews(Entry entry, ViewGroup parent) {
         PackageManager pmUser = getPackageManagerForUser(mContext,
                 entry.notification.getUser().getIdentifier());
+        final boolean wasInflating = mNotificationInflater.cancel(entry.key);
 
         final StatusBarNotification sbn = entry.notification;
         entry.cacheContentViews(mContext, null);
@@ -1339,8 +1387,31 @@ public abstract class BaseStatusBar extends SystemUI implements
             Log.v(TAG, "publicContentView: " + publicContentView);
         }
 
+        // Besides the contracted view, only views which the row showed before are inflated right
+        // away, the others once they are needed. The media controls are looked up in the
+        // expanded view, so media notifications always need it.
+        int contentViews = ExpandableNotificationRow.FLAG_CONTENT_VIEWS_ALL;
+        if (ENABLE_LAZY_INFLATION && !sbn.getNotification().extras.containsKey(
+                Notification.EXTRA_MEDIA_SESSION)) {
+            contentViews = entry.row != null ? entry.row.getInflatedContentViews() : 0;
+        }
+        int pendingContentViews = 0;
+        if (bigContentView != null && (contentViews & FLAG_CONTENT_VIEW_EXPANDED) == 0) {
+            pendingContentViews |= FLAG_CONTENT_VIEW_EXPANDED;
+        }
+        if (headsUpContentView != null && (contentViews & FLAG_CONTENT_VIEW_HEADS_UP) == 0) {
+            pendingContentViews |= FLAG_CONTENT_VIEW_HEADS_UP;
+        }
+        if (publicContentView != null && (contentViews & FLAG_CONTENT_VIEW_PUBLIC) == 0) {
+            pendingContentViews |= FLAG_CONTENT_VIEW_PUBLIC;
+        }
+
         ExpandableNotificationRow row;
 
+        // Only rows still showing a placeholder are inflated in the background, existing ones
+        // keep showing their old content while being reinflated.
+        final boolean inflateAsync = ENABLE_ASYNC_INFLATION && (entry.row == null || wasInflating);
+
         // Stash away previous user expansion state so we can restore it at
         // the end.
         boolean hasUserChangedExpansion = false;
@@ -1357,16 +1428,14 @@ public abstract class BaseStatusBar extends SystemUI implements
                 row.setUserExpanded(userExpanded);
             }
         } else {
-            // create the row view
-            LayoutInflater inflater = (LayoutInflater) mContext.getSystemService(
-                    Context.LAYOUT_INFLATER_SERVICE);
-            row = (ExpandableNotificationRow) inflater.inflate(R.layout.status_bar_notification_row,
-                    parent, false);
+            // create the row view, or reuse the one of a removed notification
+            row = mRowPool.obtain(parent);
             row.setExpansionLogger(this, entry.notification.getKey());
             row.setGroupManager(mGroupManager);
             row.setHeadsUpManager(mHeadsUpManager);
             row.setRemoteInputController(mRemoteInputController);
             row.setOnExpandClickListener(this);
+            row.setLazyContentInflater(this);
 
             // Get the app name.
             // Note that Notification.Builder#bindHeaderAppName has similar logic
@@ -1411,51 +1480,42 @@ public abstract class BaseStatusBar extends SystemUI implements
         View bigContentViewLocal = null;
         View headsUpContentViewLocal = null;
         View publicViewLocal = null;
-        try {
-            contentViewLocal = contentView.apply(
-                    sbn.getPackageContext(mContext),
-                    contentContainer,
-                    mOnClickHandler);
-            if (bigContentView != null) {
-                bigContentViewLocal = bigContentView.apply(
-                        sbn.getPackageContext(mContext),
-                        contentContainer,
-                        mOnClickHandler);
-            }
-            if (headsUpContentView != null) {
-                headsUpContentViewLocal = headsUpContentView.apply(
+        if (inflateAsync) {
+            // The real content is bound in onInflationFinished, until then show a placeholder
+            contentContainer.setContractedChild(mNotificationInflater.inflatePlaceholder(
+                    contentContainer, sbn.getNotification()));
+        } else {
+            try {
+                contentViewLocal = contentView.apply(
                         sbn.getPackageContext(mContext),
                         contentContainer,
                         mOnClickHandler);
+                if (bigContentView != null && (contentViews & FLAG_CONTENT_VIEW_EXPANDED) != 0) {
+                    bigContentViewLocal = bigContentView.apply(
+                            sbn.getPackageContext(mContext),
+                            contentContainer,
+                            mOnClickHandler);
+                }
+                if (headsUpContentView != null
+                        && (contentViews & FLAG_CONTENT_VIEW_HEADS_UP) != 0) {
+                    headsUpContentViewLocal = headsUpContentView.apply(
+                            sbn.getPackageContext(mContext),
+                            contentContainer,
+                            mOnClickHandler);
+                }
+                if (publicContentView != null && (contentViews & FLAG_CONTENT_VIEW_PUBLIC) != 0) {
+                    publicViewLocal = publicContentView.apply(
+                            sbn.getPackageContext(mContext),
+                            contentContainerPublic, mOnClickHandler);
+                }
             }
-            if (publicContentView != null) {
-                publicViewLocal = publicContentView.apply(
-                        sbn.getPackageContext(mContext),
-                        contentContainerPublic, mOnClickHandler);
+            catch (RuntimeException e) {
+                final String ident = sbn.getPackageName() + "/0x"
+                        + Integer.toHexString(sbn.getId());
+                Log.e(TAG, "couldn't inflate view for notification " + ident, e);
+                return false;
             }
         }
-        catch (RuntimeException e) {
-            final String ident = sbn.getPackageName() + "/0x" + Integer.toHexString(sbn.getId());
-            Log.e(TAG, "couldn't inflate view for notification " + ident, e);
-            return false;
-        }
-
-        if (contentViewLocal != null) {
-            contentViewLocal.setIsRootNamespace(true);
-            contentContainer.setContractedChild(contentViewLocal);
-        }
-        if (bigContentViewLocal != null) {
-            bigContentViewLocal.setIsRootNamespace(true);
-            contentContainer.setExpandedChild(bigContentViewLocal);
-        }
-        if (headsUpContentViewLocal != null) {
-            headsUpContentViewLocal.setIsRootNamespace(true);
-            contentContainer.setHeadsUpChild(headsUpContentViewLocal);
-        }
-        if (publicViewLocal != null) {
-            publicViewLocal.setIsRootNamespace(true);
-            contentContainerPublic.setContractedChild(publicViewLocal);
-        }
 
         // Extract target SDK version.
         try {
@@ -1475,9 +1535,19 @@ public abstract class BaseStatusBar extends SystemUI implements
         }
         entry.row = row;
         entry.row.setOnActivatedListener(this);
-        entry.row.setExpandable(bigContentViewLocal != null);
+        row.setPendingContentViews(pendingContentViews);
+        if (pendingContentViews != 0) {
+            scheduleContentViewPrefetch();
+        }
+
+        if (inflateAsync) {
+            row.onNotificationUpdated(entry);
+            mNotificationInflater.inflate(entry, sbn.getPackageContext(mContext), contentViews);
+            return true;
+        }
 
-        applyColorsAndBackgrounds(sbn, entry);
+        bindContentViews(entry, contentViewLocal, bigContentViewLocal, headsUpContentViewLocal,
+                publicViewLocal);
 
         // Restore previous flags.
         if (hasUserChangedExpansion) {
@@ -1489,6 +1559,138 @@ public abstract class BaseStatusBar extends SystemUI implements
         return true;
     }
 
+    private void bindContentViews(Entry entry, View contentViewLocal, View bigContentViewLocal,
+            View headsUpContentViewLocal, View publicViewLocal) {
+        NotificationContentView contentContainer = entry.row.getPrivateLayout();
+        NotificationContentView contentContainerPublic = entry.row.getPublicLayout();
+        if (contentViewLocal != null) {
+            contentViewLocal.setIsRootNamespace(true);
+            contentContainer.setContractedChild(contentViewLocal);
+        }
+        if (bigContentViewLocal != null) {
+            bigContentViewLocal.setIsRootNamespace(true);
+            contentContainer.setExpandedChild(bigContentViewLocal);
+        }
+        if (headsUpContentViewLocal != null) {
+            headsUpContentViewLocal.setIsRootNamespace(true);
+            contentContainer.setHeadsUpChild(headsUpContentViewLocal);
+        }
+        if (publicViewLocal != null) {
+            publicViewLocal.setIsRootNamespace(true);
+            contentContainerPublic.setContractedChild(publicViewLocal);
+        }
+        entry.row.setExpandable(contentContainer.getExpandedChild() != null
+                || entry.row.hasPendingContentView(FLAG_CONTENT_VIEW_EXPANDED));
+
+        applyColorsAndBackgrounds(entry.notification, entry);
+
+        if (ENABLE_LAZY_INFLATION && entry.row.getInflatedContentViews() != 0
+                && !isMediaNotification(entry)) {
+            mContentManager.onContentInflated(entry.row);
+        } else {
+            mContentManager.remove(entry.row);
+        }
+    }
+
+    @Override
+    public void onContentViewsUsed(ExpandableNotificationRow row) {
+        mContentManager.onContentUsed(row);
+    }
+
+    @Override
+    public void inflateContentViews(ExpandableNotificationRow row, int flags) {
+        final Entry entry = mNotificationData.get(row.getStatusBarNotification().getKey());
+        if (entry == null || entry.row != row) {
+            return;
+        }
+        if (entry.cachedContentViewsOutdated) {
+            entry.cacheContentViews(mContext, null /* updatedNotification */);
+        }
+        final StatusBarNotification sbn = entry.notification;
+        final Context packageContext = sbn.getPackageContext(mContext);
+        View bigContentViewLocal = null;
+        View headsUpContentViewLocal = null;
+        View publicViewLocal = null;
+        try {
+            if ((flags & FLAG_CONTENT_VIEW_EXPANDED) != 0
+                    && entry.cachedBigContentView != null) {
+                bigContentViewLocal = entry.cachedBigContentView.apply(packageContext,
+                        row.getPrivateLayout(), mOnClickHandler);
+            }
+            if ((flags & FLAG_CONTENT_VIEW_HEADS_UP) != 0
+                    && entry.cachedHeadsUpContentView != null) {
+                headsUpContentViewLocal = entry.cachedHeadsUpContentView.apply(packageContext,
+                        row.getPrivateLayout(), mOnClickHandler);
+            }
+            if ((flags & FLAG_CONTENT_VIEW_PUBLIC) != 0
+                    && entry.cachedPublicContentView != null) {
+                publicViewLocal = entry.cachedPublicContentView.apply(packageContext,
+                        row.getPublicLayout(), mOnClickHandler);
+            }
+        } catch (RuntimeException e) {
+            final String ident = sbn.getPackageName() + "/0x" + Integer.toHexString(sbn.getId());
+            Log.e(TAG, "couldn't inflate view for notification " + ident, e);
+            handleNotificationError(sbn, "Couldn't expand RemoteViews for: " + sbn);
+            return;
+        }
+        bindContentViews(entry, null /* contentViewLocal */, bigContentViewLocal,
+                headsUpContentViewLocal, publicViewLocal);
+        row.onNotificationUpdated(entry);
+    }
+
+    private void scheduleContentViewPrefetch() {
+        if (LAZY_INFLATION_PREFETCH_COUNT > 0 && !mPrefetchScheduled) {
+            mPrefetchScheduled = true;
+            Looper.myQueue().addIdleHandler(mPrefetchIdleHandler);
+        }
+    }
+
+    /**
+     * Inflates the pending expanded view of one of the top rows, which are the ones most likely
+     * to be expanded. One row at a time, so the idle time isn't exceeded by much.
+     *
+     * @return whether there may be more rows to prefetch
+     */
+    private boolean prefetchContentViews() {
+        final ArrayList<Entry> entries = mNotificationData.getActiveNotifications();
+        final int count = Math.min(entries.size(), LAZY_INFLATION_PREFETCH_COUNT);
+        for (int i = 0; i < count; i++) {
+            final ExpandableNotificationRow row = entries.get(i).row;
+            if (row != null && row.hasPendingContentView(FLAG_CONTENT_VIEW_EXPANDED)) {
+                row.ensureContentViewsInflated(FLAG_CONTENT_VIEW_EXPANDED);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void onInflationFinished(Entry entry, View contentViewLocal, View bigContentViewLocal,
+            View headsUpContentViewLocal, View publicViewLocal) {
+        if (mNotificationData.get(entry.key) != entry) {
+            // Removed or replaced while inflating
+            return;
+        }
+        bindContentViews(entry, contentViewLocal, bigContentViewLocal, headsUpContentViewLocal,
+                publicViewLocal);
+        entry.row.onNotificationUpdated(entry);
+    }
+
+    @Override
+    public void onInflationError(Entry entry, Exception e) {
+        final StatusBarNotification sbn = entry.notification;
+        final String ident = sbn.getPackageName() + "/0x" + Integer.toHexString(sbn.getId());
+        Log.e(TAG, "couldn't inflate view for notification " + ident, e);
+        if (mNotificationData.get(entry.key) == entry) {
+            handleNotificationError(sbn, "Couldn't expand RemoteViews for: " + sbn);
+        }
+    }
+
+    @Override
+    public void onInflationBatchCommitted() {
+        updateNotifications();
+    }
+
     /**
      * Adds RemoteInput actions from the WearableExtender; to be removed once more apps support this
      * via first-class API.
@@ -1725,12 +1927,21 @@ public abstract class BaseStatusBar extends SystemUI implements
     }
 
     protected StatusBarNotification removeNotificationViews(String key, RankingMap ranking) {
+        mNotificationInflater.cancel(key);
+        mUpdateCoalescer.cancel(key);
         NotificationData.Entry entry = mNotificationData.remove(key, ranking);
         if (entry == null) {
             Log.w(TAG, "removeNotification for unknown key: " + key);
             return null;
         }
         updateNotifications();
+        if (entry.row != null) {
+            ExpandableNotificationRow row = entry.row;
+            // Late callbacks for the removed entry must not reach the row once it is reused.
+            entry.row = null;
+            mContentManager.remove(row);
+            mRowPool.recycle(row);
+        }
         return entry.notification;
     }
 
@@ -1839,6 +2050,11 @@ public abstract class BaseStatusBar extends SystemUI implements
     public abstract void removeNotification(String key, RankingMap ranking);
 
     public void updateNotification(StatusBarNotification notification, RankingMap ranking) {
+        updateNotification(notification, ranking, true /* allowPartialUpdate */);
+    }
+
+    private void updateNotification(StatusBarNotification notification, RankingMap ranking,
+            boolean allowPartialUpdate) {
         if (DEBUG) Log.d(TAG, "updateNotification(" + notification + ")");
 
         final String key = notification.getKey();
@@ -1850,10 +2066,28 @@ public abstract class BaseStatusBar extends SystemUI implements
             mRemoteInputEntriesToRemoveOnCollapse.remove(entry);
         }
 
+        mUpdateCoalescer.cancel(key);
+
         Notification n = notification.getNotification();
+        boolean partialUpdate = allowPartialUpdate && getPartialUpdateChanges(entry, notification)
+                != NotificationUpdateClassifier.FULL_UPDATE;
+        if (partialUpdate) {
+            mTmpSortedEntries.addAll(mNotificationData.getActiveNotifications());
+        }
         mNotificationData.updateRanking(ranking);
+        if (partialUpdate) {
+            // Only take the shortcut if the new ranking doesn't move anything around.
+            partialUpdate = mTmpSortedEntries.equals(mNotificationData.getActiveNotifications());
+            mTmpSortedEntries.clear();
+        }
+        if (partialUpdate) {
+            if (DEBUG) Log.d(TAG, "partially updating notification for key: " + key);
+            mUpdateCoalescer.post(notification);
+            return;
+        }
 
-        boolean applyInPlace = entry.cacheContentViews(mContext, notification.getNotification());
+        boolean applyInPlace = entry.cacheContentViews(mContext, notification.getNotification())
+                && !mNotificationInflater.isInflating(key);
         boolean shouldPeek = shouldPeek(entry, notification);
         boolean alertAgain = alertAgain(entry, n);
         if (DEBUG) {
@@ -1932,6 +2166,59 @@ public abstract class BaseStatusBar extends SystemUI implements
     protected abstract void updateHeadsUp(String key, Entry entry, boolean shouldPeek,
             boolean alertAgain);
 
+    /**
+     * @return the values which changed in the update if it can be patched into the existing
+     *         views of the entry, {@link NotificationUpdateClassifier#FULL_UPDATE} otherwise
+     */
+    private int getPartialUpdateChanges(Entry entry, StatusBarNotification notification) {
+        if (entry.row == null || entry.targetSdk < Build.VERSION_CODES.N
+                || entry.row.isSummaryWithChildren()
+                || mNotificationInflater.isInflating(entry.key)
+                || isHeadsUp(entry.key)
+                || (shouldPeek(entry, notification)
+                        && alertAgain(entry, notification.getNotification()))) {
+            return NotificationUpdateClassifier.FULL_UPDATE;
+        }
+        return NotificationUpdateClassifier.classify(entry.notification.getNotification(),
+                notification.getNotification());
+    }
+
+    /**
+     * Applies the latest partial update of a notification posted within the last frame.
+     */
+    private void applyPartialUpdate(StatusBarNotification notification) {
+        final Entry entry = mNotificationData.get(notification.getKey());
+        if (entry == null) {
+            return;
+        }
+        final int changes = getPartialUpdateChanges(entry, notification);
+        if (changes == NotificationUpdateClassifier.FULL_UPDATE) {
+            // The notification changed in between, it needs to go through the normal path.
+            updateNotification(notification, null, false /* allowPartialUpdate */);
+            return;
+        }
+        final StatusBarNotification oldNotification = entry.notification;
+        entry.notification = notification;
+        mGroupManager.onEntryUpdated(entry, oldNotification);
+        entry.cachedContentViewsOutdated = true;
+        if (entry.icon != null) {
+            entry.icon.setNotification(notification.getNotification());
+        }
+        boolean updateSuccessful;
+        try {
+            updateSuccessful = entry.row.applyPartialUpdate(entry, changes);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Couldn't partially update views for package "
+                    + notification.getPackageName(), e);
+            updateSuccessful = false;
+        }
+        if (!updateSuccessful) {
+            updateNotification(notification, null, false /* allowPartialUpdate */);
+            return;
+        }
+        mNotificationClicker.register(entry.row, notification);
+    }
+
     private void updateNotificationViews(Entry entry, StatusBarNotification sbn) {
         final RemoteViews contentView = entry.cachedContentView;
         final RemoteViews bigContentView = entry.cachedBigContentView;
@@ -1963,6 +2250,9 @@ public abstract class BaseStatusBar extends SystemUI implements
 
     protected void updatePublicContentView(Entry entry,
             StatusBarNotification sbn) {
+        if (entry.cachedContentViewsOutdated) {
+            entry.cacheContentViews(mContext, null /* updatedNotification */);
+        }
         final RemoteViews publicContentView = entry.cachedPublicContentView;
         View inflatedView = entry.getPublicContentView();
         if (entry.autoRedacted && publicContentView != null && inflatedView != null) {
@@ -48,6 +48,7 @@ import com.android.internal.util.NotificationColorUtil;
 import com.studio.shade.R;
 import com.studio.shade.classifier.FalsingManager;
 import com.studio.shade.statusbar.notification.HybridNotificationView;
+import com.studio.shade.statusbar.notification.NotificationUpdateClassifier;
 import com.studio.shade.statusbar.phone.NotificationGroupManager;
 import com.studio.shade.statusbar.policy.HeadsUpManager;
 import com.studio.shade.statusbar.stack.NotificationChildrenContainer;
@@ -61,6 +62,13 @@ import java.util.List;
 
 public class ExpandableNotificationRow extends ActivatableNotificationView {
 
+    /** Content views which are only inflated once they are needed */
+    public static final int FLAG_CONTENT_VIEW_EXPANDED = 1 << 0;
+    public static final int FLAG_CONTENT_VIEW_HEADS_UP = 1 << 1;
+    public static final int FLAG_CONTENT_VIEW_PUBLIC = 1 << 2;
+    public static final int FLAG_CONTENT_VIEWS_ALL = FLAG_CONTENT_VIEW_EXPANDED
+            | FLAG_CONTENT_VIEW_HEADS_UP | FLAG_CONTENT_VIEW_PUBLIC;
+
     private static final int DEFAULT_DIVIDER_ALPHA = 0x29;
     private static final int COLORED_DIVIDER_ALPHA = 0x7B;
     private int mNotificationMinHeightLegacy;
@@ -137,6 +145,9 @@ public class ExpandableNotificationRow extends ActivatableNotificationView {
     private ExpandableNotificationRow mNotificationParent;
     private OnExpandClickListener mOnExpandClickListener;
     private boolean mGroupExpansionChanging;
+    private LazyContentInflater mLazyContentInflater;
+    /** Content views the notification has but which weren't inflated yet */
+    private int mPendingContentViews;
 
     private OnClickListener mExpandClickListener = new OnClickListener() {
         @Override
@@ -297,6 +308,22 @@ public class ExpandableNotificationRow extends ActivatableNotificationView {
         updateLimits();
     }
 
+    /**
+     * Applies an update which only changed a few values of the notification without reapplying
+     * the content views.
+     *
+     * @return false if the update couldn't be applied and the views have to be reapplied
+     * @see NotificationUpdateClassifier
+     */
+    public boolean applyPartialUpdate(NotificationData.Entry entry, int changes) {
+        mEntry = entry;
+        mStatusBarNotification = entry.notification;
+        // The public version only shows the header of the notification.
+        return mPrivateLayout.applyPartialUpdate(entry, changes)
+                && mPublicLayout.applyPartialUpdate(entry,
+                        changes & NotificationUpdateClassifier.CHANGED_CHRONOMETER);
+    }
+
     private void updateLimits() {
         updateLimitsForView(mPrivateLayout);
         updateLimitsForView(mPublicLayout);
@@ -325,6 +352,9 @@ public class ExpandableNotificationRow extends ActivatableNotificationView {
     }
 
     public void setHeadsUp(boolean isHeadsUp) {
+        if (isHeadsUp) {
+            ensureContentViewsInflated(FLAG_CONTENT_VIEW_HEADS_UP);
+        }
         int intrinsicBefore = getIntrinsicHeight();
         mIsHeadsUp = isHeadsUp;
         mPrivateLayout.setHeadsUp(isHeadsUp);
@@ -610,6 +640,94 @@ public class ExpandableNotificationRow extends ActivatableNotificationView {
         mOnExpandClickListener = onExpandClickListener;
     }
 
+    public void setLazyContentInflater(LazyContentInflater lazyContentInflater) {
+        mLazyContentInflater = lazyContentInflater;
+    }
+
+    /**
+     * Sets the content views which exist for the notification but are only inflated on demand.
+     *
+     * @param flags a combination of the FLAG_CONTENT_VIEW_* flags
+     */
+    public void setPendingContentViews(int flags) {
+        mPendingContentViews = flags;
+    }
+
+    public boolean hasPendingContentView(int flag) {
+        return (mPendingContentViews & flag) != 0;
+    }
+
+    /**
+     * @return the optional content views which are inflated already
+     */
+    public int getInflatedContentViews() {
+        int flags = 0;
+        if (mPrivateLayout.getExpandedChild() != null) {
+            flags |= FLAG_CONTENT_VIEW_EXPANDED;
+        }
+        if (mPrivateLayout.getHeadsUpChild() != null) {
+            flags |= FLAG_CONTENT_VIEW_HEADS_UP;
+        }
+        if (mPublicLayout.getContractedChild() != null) {
+            flags |= FLAG_CONTENT_VIEW_PUBLIC;
+        }
+        return flags;
+    }
+
+    /**
+     * Inflates the given content views right away if they are still pending, because they are
+     * about to be shown.
+     */
+    public void ensureContentViewsInflated(int flags) {
+        if (mLazyContentInflater == null) {
+            return;
+        }
+        final int missing = mPendingContentViews & flags;
+        if (missing == 0) {
+            if ((getInflatedContentViews() & flags) != 0) {
+                mLazyContentInflater.onContentViewsUsed(this);
+            }
+            return;
+        }
+        mPendingContentViews &= ~missing;
+        mLazyContentInflater.inflateContentViews(this, missing);
+        if (getMeasuredWidth() != 0 && getParent() instanceof View) {
+            // Heights are queried before the next layout pass, e.g. when starting to expand.
+            int parentHeight = ((View) getParent()).getMeasuredHeight();
+            measure(MeasureSpec.makeMeasureSpec(getMeasuredWidth(), MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(parentHeight, MeasureSpec.AT_MOST));
+        }
+    }
+
+    /**
+     * Drops inflated content views which aren't shown right now to free their memory. They
+     * become pending again and are inflated once they are needed.
+     *
+     * @return the content views which were dropped
+     */
+    public int evictContentViews(int flags) {
+        if (mLazyContentInflater == null) {
+            return 0;
+        }
+        final int candidates = flags & getInflatedContentViews();
+        int evicted = 0;
+        if ((candidates & FLAG_CONTENT_VIEW_EXPANDED) != 0 && !isExpanded(true)
+                && !isUserLocked() && mPrivateLayout.removeExpandedChild()) {
+            evicted |= FLAG_CONTENT_VIEW_EXPANDED;
+        }
+        if ((candidates & FLAG_CONTENT_VIEW_HEADS_UP) != 0 && !mIsHeadsUp
+                && !mHeadsupDisappearRunning && mPrivateLayout.removeHeadsUpChild()) {
+            evicted |= FLAG_CONTENT_VIEW_HEADS_UP;
+        }
+        if ((candidates & FLAG_CONTENT_VIEW_PUBLIC) != 0 && !mShowingPublic
+                && !(mSensitive && mHideSensitiveForIntrinsicHeight)) {
+            mPublicLayout.removeContractedChild();
+            evicted |= FLAG_CONTENT_VIEW_PUBLIC;
+        }
+        mPendingContentViews |= evicted;
+        return evicted;
+    }
+
     @Override
     public void setOnClickListener(@Nullable OnClickListener l) {
         super.setOnClickListener(l);
@@ -779,6 +897,18 @@ public class ExpandableNotificationRow extends ActivatableNotificationView {
         return mGroupParentWhenDismissed;
     }
 
+    /**
+     * Inflates content views which were skipped when the row was created.
+     */
+    public interface LazyContentInflater {
+        void inflateContentViews(ExpandableNotificationRow row, int flags);
+
+        /**
+         * Inflated content views of the row are about to be shown again.
+         */
+        void onContentViewsUsed(ExpandableNotificationRow row);
+    }
+
     public interface ExpansionLogger {
         public void logNotificationExpansion(String key, boolean userAction, boolean expanded);
     }
@@ -826,6 +956,7 @@ public class ExpandableNotificationRow extends ActivatableNotificationView {
         mShowingPublicInitialized = false;
         mIsSystemExpanded = false;
         mOnKeyguard = false;
+        mPendingContentViews = 0;
         mPublicLayout.reset();
         mPrivateLayout.reset();
         resetHeight();
@@ -833,6 +964,48 @@ public class ExpandableNotificationRow extends ActivatableNotificationView {
         logExpansionEvent(false, wasExpanded);
     }
 
+    /**
+     * Resets this view so it can be re-used for a different notification. Only called on rows
+     * of removed notifications which are detached already.
+     */
+    public void resetForReuse() {
+        reset();
+        mPrivateLayout.resetForReuse();
+        mPublicLayout.resetForReuse();
+        mUserExpanded = false;
+        mExpandedWhenPinned = false;
+        mSensitiveHiddenInGeneral = false;
+        mHideSensitiveForIntrinsicHeight = false;
+        mIsHeadsUp = false;
+        mPrivateLayout.setHeadsUp(false);
+        mHeadsupDisappearRunning = false;
+        mPrivateLayout.setHeadsupDisappearRunning(false);
+        mChildrenExpanded = false;
+        mIsSystemChildExpanded = false;
+        mGroupExpansionChanging = false;
+        mNotificationParent = null;
+        mDismissed = false;
+        mRemoved = false;
+        mKeepInParent = false;
+        mJustClicked = false;
+        mChildAfterViewWhenDismissed = null;
+        mGroupParentWhenDismissed = null;
+        mRefocusOnDismiss = false;
+        mEntry = null;
+        mStatusBarNotification = null;
+        mLoggingKey = null;
+        if (mGuts != null) {
+            mGuts.setExposed(false, false /* needsFalsingProtection */);
+            mGuts.setVisibility(View.GONE);
+        }
+        if (mSettingsIconRow != null) {
+            mSettingsIconRow.resetState();
+        }
+        setTransientContainer(null);
+        setAlpha(1f);
+        setVisibility(View.VISIBLE);
+    }
+
     public void resetHeight() {
         mMaxExpandHeight = 0;
         mHeadsUpHeight = 0;
@@ -1089,6 +1262,9 @@ public class ExpandableNotificationRow extends ActivatableNotificationView {
             return;
         }
         if (userExpanded && !mExpandable) return;
+        if (userExpanded) {
+            ensureContentViewsInflated(FLAG_CONTENT_VIEW_EXPANDED);
+        }
         final boolean wasExpanded = isExpanded();
         mHasUserChangedExpansion = true;
         mUserExpanded = userExpanded;
@@ -1105,6 +1281,9 @@ public class ExpandableNotificationRow extends ActivatableNotificationView {
     }
 
     public void setUserLocked(boolean userLocked) {
+        if (userLocked) {
+            ensureContentViewsInflated(FLAG_CONTENT_VIEW_EXPANDED);
+        }
         mUserLocked = userLocked;
         mPrivateLayout.setUserExpanding(userLocked);
         if (mIsSummaryWithChildren) {
@@ -1129,6 +1308,9 @@ public class ExpandableNotificationRow extends ActivatableNotificationView {
      */
     public void setSystemExpanded(boolean expand) {
         if (expand != mIsSystemExpanded) {
+            if (expand) {
+                ensureContentViewsInflated(FLAG_CONTENT_VIEW_EXPANDED);
+            }
             final boolean wasExpanded = isExpanded();
             mIsSystemExpanded = expand;
             notifyHeightChanged(false /* needsAnimation */);
@@ -1237,6 +1419,9 @@ public class ExpandableNotificationRow extends ActivatableNotificationView {
     }
 
     public void setSystemChildExpanded(boolean expanded) {
+        if (expanded) {
+            ensureContentViewsInflated(FLAG_CONTENT_VIEW_EXPANDED);
+        }
         mIsSystemChildExpanded = expanded;
     }
 
@@ -1273,11 +1458,17 @@ public class ExpandableNotificationRow extends ActivatableNotificationView {
     }
 
     public void setSensitive(boolean sensitive, boolean hideSensitive) {
+        if (sensitive && mHideSensitiveForIntrinsicHeight) {
+            ensureContentViewsInflated(FLAG_CONTENT_VIEW_PUBLIC);
+        }
         mSensitive = sensitive;
         mSensitiveHiddenInGeneral = hideSensitive;
     }
 
     public void setHideSensitiveForIntrinsicHeight(boolean hideSensitive) {
+        if (hideSensitive && mSensitive) {
+            ensureContentViewsInflated(FLAG_CONTENT_VIEW_PUBLIC);
+        }
         mHideSensitiveForIntrinsicHeight = hideSensitive;
         if (mIsSummaryWithChildren) {
             List<ExpandableNotificationRow> notificationChildren =
@@ -1293,6 +1484,9 @@ public class ExpandableNotificationRow extends ActivatableNotificationView {
             long duration) {
         boolean oldShowingPublic = mShowingPublic;
         mShowingPublic = mSensitive && hideSensitive;
+        if (mShowingPublic) {
+            ensureContentViewsInflated(FLAG_CONTENT_VIEW_PUBLIC);
+        }
         if (mShowingPublicInitialized && mShowingPublic == oldShowingPublic) {
             return;
         }
@@ -44,6 +44,7 @@ public abstract class ExpandableView extends FrameLayout {
     private boolean mClipToActualHeight = true;
     private boolean mChangingPosition = false;
     private ViewGroup mTransientContainer;
+    private int mStateSlot = -1;
 
     public ExpandableView(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -414,6 +415,18 @@ public abstract class ExpandableView extends FrameLayout {
         return mTransientContainer;
     }
 
+    /**
+     * Sets the index under which the {@link com.studio.shade.statusbar.stack.StackScrollState}
+     * stores the state of this view, or -1 if it has none.
+     */
+    public void setStateSlot(int stateSlot) {
+        mStateSlot = stateSlot;
+    }
+
+    public int getStateSlot() {
+        return mStateSlot;
+    }
+
     /**
      * @return padding used to alter how much of the view is clipped.
      */
@@ -36,6 +36,7 @@ import com.studio.shade.R;
 import com.studio.shade.statusbar.notification.HybridNotificationView;
 import com.studio.shade.statusbar.notification.HybridGroupManager;
 import com.studio.shade.statusbar.notification.NotificationCustomViewWrapper;
+import com.studio.shade.statusbar.notification.NotificationUpdateClassifier;
 import com.studio.shade.statusbar.notification.NotificationUtils;
 import com.studio.shade.statusbar.notification.NotificationViewWrapper;
 import com.studio.shade.statusbar.phone.NotificationGroupManager;
@@ -220,7 +221,7 @@ public class NotificationContentView extends FrameLayout {
         // have the expand buttons laid out at the same location.
         NotificationHeaderView contractedHeader = mContractedWrapper.getNotificationHeader();
         if (contractedHeader != null) {
-            if (mExpandedChild != null
+            if (mExpandedWrapper != null
                     && mExpandedWrapper.getNotificationHeader() != null) {
                 NotificationHeaderView expandedHeader = mExpandedWrapper.getNotificationHeader();
                 int expandedSize = expandedHeader.getMeasuredWidth()
@@ -322,6 +323,21 @@ public class NotificationContentView extends FrameLayout {
         mHeadsUpChild = null;
     }
 
+    /**
+     * Drops the remaining state of the notification shown, after {@link #reset()}, so the view
+     * can show a different notification.
+     */
+    public void resetForReuse() {
+        mExpandedRemoteInput = null;
+        mHeadsUpRemoteInput = null;
+        mPreviousExpandedRemoteInputIntent = null;
+        mPreviousHeadsUpRemoteInputIntent = null;
+        mContractedWrapper = null;
+        mExpandedWrapper = null;
+        mHeadsUpWrapper = null;
+        mUserExpanding = false;
+    }
+
     public View getContractedChild() {
         return mContractedChild;
     }
@@ -368,6 +384,61 @@ public class NotificationContentView extends FrameLayout {
                 mContainingNotification);
     }
 
+    /**
+     * Removes the contracted child to free its memory. Only used for the public layout, which
+     * can be inflated again on demand.
+     */
+    public void removeContractedChild() {
+        if (mContractedChild != null) {
+            mContractedChild.animate().cancel();
+            removeView(mContractedChild);
+            mContractedChild = null;
+            mContractedWrapper = null;
+        }
+    }
+
+    /**
+     * Removes the expanded child to free its memory, unless it is showing or in use.
+     *
+     * @return whether there is no expanded child anymore
+     */
+    public boolean removeExpandedChild() {
+        if (mExpandedChild == null) {
+            return true;
+        }
+        if (mVisibleType == VISIBLE_TYPE_EXPANDED || mUserExpanding
+                || (mExpandedRemoteInput != null && mExpandedRemoteInput.isActive())) {
+            return false;
+        }
+        mExpandedChild.animate().cancel();
+        removeView(mExpandedChild);
+        mExpandedChild = null;
+        mExpandedWrapper = null;
+        mExpandedRemoteInput = null;
+        return true;
+    }
+
+    /**
+     * Removes the heads up child to free its memory, unless it is showing or in use.
+     *
+     * @return whether there is no heads up child anymore
+     */
+    public boolean removeHeadsUpChild() {
+        if (mHeadsUpChild == null) {
+            return true;
+        }
+        if (mVisibleType == VISIBLE_TYPE_HEADSUP || mIsHeadsUp || mHeadsupDisappearRunning
+                || (mHeadsUpRemoteInput != null && mHeadsUpRemoteInput.isActive())) {
+            return false;
+        }
+        mHeadsUpChild.animate().cancel();
+        removeView(mHeadsUpChild);
+        mHeadsUpChild = null;
+        mHeadsUpWrapper = null;
+        mHeadsUpRemoteInput = null;
+        return true;
+    }
+
     @Override
     protected void onVisibilityChanged(View changedView, int visibility) {
         super.onVisibilityChanged(changedView, visibility);
@@ -412,6 +483,11 @@ public class NotificationContentView extends FrameLayout {
     }
 
     public void setContentHeight(int contentHeight) {
+        if (mContractedChild == null) {
+            // Nothing inflated yet, like a public version which wasn't needed so far.
+            mContentHeight = contentHeight;
+            return;
+        }
         mContentHeight = Math.max(Math.min(contentHeight, getHeight()), getMinHeight());
         selectLayout(mAnimate /* animate */, false /* force */);
 
@@ -697,8 +773,10 @@ public class NotificationContentView extends FrameLayout {
     }
 
     private void updateViewVisibilities(int visibleType) {
-        boolean contractedVisible = visibleType == VISIBLE_TYPE_CONTRACTED;
-        mContractedWrapper.setVisible(contractedVisible);
+        if (mContractedChild != null) {
+            boolean contractedVisible = visibleType == VISIBLE_TYPE_CONTRACTED;
+            mContractedWrapper.setVisible(contractedVisible);
+        }
         if (mExpandedChild != null) {
             boolean expandedVisible = visibleType == VISIBLE_TYPE_EXPANDED;
             mExpandedWrapper.setVisible(expandedVisible);
@@ -749,7 +827,8 @@ public class NotificationContentView extends FrameLayout {
 
     /**
      * @param visibleType one of the static enum types in this view
-     * @return the corresponding transformable view according to the given visible type
+     * @return the corresponding transformable view according to the given visible type, or null
+     *         if its view was removed
      */
     private TransformableView getTransformableViewForVisibleType(int visibleType) {
         switch (visibleType) {
@@ -929,6 +1008,33 @@ public class NotificationContentView extends FrameLayout {
         mPreviousHeadsUpRemoteInputIntent = null;
     }
 
+    /**
+     * Applies an update which only changed a few values of the notification to the existing
+     * content views, see {@link NotificationUpdateClassifier}.
+     *
+     * @return false if one of the views couldn't be updated, the notification has to be fully
+     *         reapplied then
+     */
+    public boolean applyPartialUpdate(NotificationData.Entry entry, int changes) {
+        mStatusBarNotification = entry.notification;
+        if (mContractedChild != null
+                && !mContractedWrapper.applyPartialUpdate(entry.notification, changes)) {
+            return false;
+        }
+        if (mExpandedChild != null
+                && !mExpandedWrapper.applyPartialUpdate(entry.notification, changes)) {
+            return false;
+        }
+        if (mHeadsUpChild != null
+                && !mHeadsUpWrapper.applyPartialUpdate(entry.notification, changes)) {
+            return false;
+        }
+        if ((changes & NotificationUpdateClassifier.CHANGED_TEXT) != 0) {
+            updateSingleLineView();
+        }
+        return true;
+    }
+
     private void updateSingleLineView() {
         if (mIsChildInGroup) {
             mSingleLineView = mHybridGroupManager.bindFromNotification(
@@ -61,7 +61,13 @@ public class NotificationData {
         public RemoteViews cachedBigContentView;
         public RemoteViews cachedHeadsUpContentView;
         public RemoteViews cachedPublicContentView;
+        // Partial updates are patched into the views without updating the cached RemoteViews
+        public boolean cachedContentViewsOutdated;
         public CharSequence remoteInputText;
+        // Ranking values cached from the last RankingMap, see NotificationData#updateRankingKey
+        private int importance = Ranking.IMPORTANCE_DEFAULT;
+        private int rank;
+        private boolean sortedAndFiltered;
 
         public Entry(StatusBarNotification n, StatusBarIconView ic) {
             this.key = n.getKey();
@@ -145,6 +151,7 @@ public class NotificationData {
 
                 applyInPlace = false;
             }
+            cachedContentViewsOutdated = false;
             return applyInPlace;
         }
 
@@ -169,40 +176,37 @@ public class NotificationData {
 
     private final ArrayMap<String, Entry> mEntries = new ArrayMap<>();
     private final ArrayList<Entry> mSortedAndFiltered = new ArrayList<>();
+    private final ArrayList<Entry> mTmpEntriesToInsert = new ArrayList<>();
 
     private NotificationGroupManager mGroupManager;
 
     private RankingMap mRankingMap;
     private final Ranking mTmpRanking = new Ranking();
+    private String mMediaNotificationKey;
+
+    /**
+     * If more entries than this are out of place after an update, we give up on repositioning
+     * them one by one and sort the whole list instead.
+     */
+    private static final int MAX_INCREMENTAL_REPOSITIONS = 8;
 
     public void setHeadsUpManager(HeadsUpManager headsUpManager) {
         mHeadsUpManager = headsUpManager;
     }
 
     private final Comparator<Entry> mRankingComparator = new Comparator<Entry>() {
-        private final Ranking mRankingA = new Ranking();
-        private final Ranking mRankingB = new Ranking();
 
         @Override
         public int compare(Entry a, Entry b) {
             final StatusBarNotification na = a.notification;
             final StatusBarNotification nb = b.notification;
-            int aImportance = Ranking.IMPORTANCE_DEFAULT;
-            int bImportance = Ranking.IMPORTANCE_DEFAULT;
-            int aRank = 0;
-            int bRank = 0;
-
-            if (mRankingMap != null) {
-                // RankingMap as received from NoMan
-                mRankingMap.getRanking(a.key, mRankingA);
-                mRankingMap.getRanking(b.key, mRankingB);
-                aImportance = mRankingA.getImportance();
-                bImportance = mRankingB.getImportance();
-                aRank = mRankingA.getRank();
-                bRank = mRankingB.getRank();
-            }
+            // Ranking values as received from NoMan, cached in updateRankingKey
+            final int aImportance = a.importance;
+            final int bImportance = b.importance;
+            final int aRank = a.rank;
+            final int bRank = b.rank;
 
-            String mediaNotification = mEnvironment.getCurrentMediaNotificationKey();
+            String mediaNotification = mMediaNotificationKey;
 
             // IMPORTANCE_MIN media streams are allowed to drift to the bottom
             final boolean aMedia = a.key.equals(mediaNotification)
@@ -261,6 +265,9 @@ public class NotificationData {
         synchronized (mEntries) {
             mEntries.put(entry.notification.getKey(), entry);
         }
+        if (ranking == null) {
+            updateRankingKey(entry);
+        }
         mGroupManager.onEntryAdded(entry);
         updateRankingAndSort(ranking);
     }
@@ -271,6 +278,10 @@ public class NotificationData {
             removed = mEntries.remove(key);
         }
         if (removed == null) return null;
+        if (removed.sortedAndFiltered) {
+            mSortedAndFiltered.remove(removed);
+            removed.sortedAndFiltered = false;
+        }
         mGroupManager.onEntryRemoved(removed);
         updateRankingAndSort(ranking);
         return removed;
@@ -337,8 +348,9 @@ public class NotificationData {
                 final int N = mEntries.size();
                 for (int i = 0; i < N; i++) {
                     Entry entry = mEntries.valueAt(i);
+                    updateRankingKey(entry);
                     final StatusBarNotification oldSbn = entry.notification.clone();
-                    final String overrideGroupKey = getOverrideGroupKey(entry.key);
+                    final String overrideGroupKey = mTmpRanking.getOverrideGroupKey();
                     if (!Objects.equals(oldSbn.getOverrideGroupKey(), overrideGroupKey)) {
                         entry.notification.setOverrideGroupKey(overrideGroupKey);
                         mGroupManager.onEntryUpdated(entry, oldSbn);
@@ -350,26 +362,71 @@ public class NotificationData {
         filterAndSort();
     }
 
+    /**
+     * Caches the ranking values of an entry so sorting doesn't have to query the RankingMap.
+     * Leaves the ranking of the entry in {@link #mTmpRanking}.
+     */
+    private void updateRankingKey(Entry entry) {
+        if (mRankingMap != null) {
+            mRankingMap.getRanking(entry.key, mTmpRanking);
+            entry.importance = mTmpRanking.getImportance();
+            entry.rank = mTmpRanking.getRank();
+        }
+    }
+
     // TODO: This should not be public. Instead the Environment should notify this class when
     // anything changed, and this class should call back the UI so it updates itself.
     public void filterAndSort() {
-        mSortedAndFiltered.clear();
+        mMediaNotificationKey = mEnvironment.getCurrentMediaNotificationKey();
+        final ArrayList<Entry> toInsert = mTmpEntriesToInsert;
+
+        // Drop entries which got filtered out and pull out the ones which are out of order.
+        // The remaining list stays sorted, so everything else can be inserted by binary search.
+        Entry last = null;
+        int writeIndex = 0;
+        final int size = mSortedAndFiltered.size();
+        for (int i = 0; i < size; i++) {
+            Entry entry = mSortedAndFiltered.get(i);
+            if (shouldFilterOut(entry.notification)) {
+                entry.sortedAndFiltered = false;
+                continue;
+            }
+            if (last != null && mRankingComparator.compare(last, entry) > 0) {
+                toInsert.add(entry);
+                continue;
+            }
+            mSortedAndFiltered.set(writeIndex++, entry);
+            last = entry;
+        }
+        for (int i = size - 1; i >= writeIndex; i--) {
+            mSortedAndFiltered.remove(i);
+        }
 
         synchronized (mEntries) {
             final int N = mEntries.size();
             for (int i = 0; i < N; i++) {
                 Entry entry = mEntries.valueAt(i);
-                StatusBarNotification sbn = entry.notification;
-
-                if (shouldFilterOut(sbn)) {
+                if (entry.sortedAndFiltered || shouldFilterOut(entry.notification)) {
                     continue;
                 }
-
-                mSortedAndFiltered.add(entry);
+                entry.sortedAndFiltered = true;
+                toInsert.add(entry);
             }
         }
 
-        Collections.sort(mSortedAndFiltered, mRankingComparator);
+        if (toInsert.size() > MAX_INCREMENTAL_REPOSITIONS) {
+            mSortedAndFiltered.addAll(toInsert);
+            Collections.sort(mSortedAndFiltered, mRankingComparator);
+        } else {
+            final int count = toInsert.size();
+            for (int i = 0; i < count; i++) {
+                Entry entry = toInsert.get(i);
+                int index = Collections.binarySearch(mSortedAndFiltered, entry,
+                        mRankingComparator);
+                mSortedAndFiltered.add(index < 0 ? -index - 1 : index, entry);
+            }
+        }
+        toInsert.clear();
     }
 
     boolean shouldFilterOut(StatusBarNotification sbn) {
@@ -434,7 +491,7 @@ public class NotificationData {
             int inactiveCount = 0;
             for (int i = 0; i < M; i++) {
                 Entry entry = mEntries.valueAt(i);
-                if (!mSortedAndFiltered.contains(entry)) {
+                if (!entry.sortedAndFiltered) {
                     dumpEntry(pw, indent, inactiveCount, entry);
                     inactiveCount++;
                 }
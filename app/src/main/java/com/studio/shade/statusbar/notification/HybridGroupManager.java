@@ -87,7 +87,7 @@ public class HybridGroupManager {
         return reusableView;
     }
 
-    private CharSequence resolveText(Notification notification) {
+    static CharSequence resolveText(Notification notification) {
         CharSequence contentText = notification.extras.getCharSequence(Notification.EXTRA_TEXT);
         if (contentText == null) {
             contentText = notification.extras.getCharSequence(Notification.EXTRA_BIG_TEXT);
@@ -95,7 +95,7 @@ public class HybridGroupManager {
         return contentText;
     }
 
-    private CharSequence resolveTitle(Notification notification) {
+    static CharSequence resolveTitle(Notification notification) {
         CharSequence titleText = notification.extras.getCharSequence(Notification.EXTRA_TITLE);
         if (titleText == null) {
             titleText = notification.extras.getCharSequence(Notification.EXTRA_TITLE_BIG);
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+
+package com.studio.shade.statusbar.notification;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.graphics.Rect;
+
+import com.studio.shade.statusbar.ExpandableNotificationRow;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Tracks the rows which have their expanded, heads up or public view inflated, least recently
+ * used first. When there are more of them than the budget allows or memory gets low, the views
+ * of rows which aren't on screen are dropped; the rows inflate them again once needed.
+ */
+public class NotificationContentManager implements ComponentCallbacks2 {
+
+    private final LinkedHashSet<ExpandableNotificationRow> mRows = new LinkedHashSet<>();
+    private final Rect mTmpRect = new Rect();
+    private final int mBudget;
+    private int mEvictedRows;
+    private int mTrimCount;
+
+    /**
+     * @param budget how many rows may keep their optional content views inflated
+     */
+    public NotificationContentManager(int budget) {
+        mBudget = budget;
+    }
+
+    /**
+     * Called after content views of a row were inflated, which makes it the most recently used.
+     */
+    public void onContentInflated(ExpandableNotificationRow row) {
+        mRows.remove(row);
+        mRows.add(row);
+        if (mRows.size() > mBudget) {
+            trimToSize(mBudget, row);
+        }
+    }
+
+    /**
+     * Called when the inflated content views of a row are shown again. Rows which aren't
+     * tracked, like media notifications which need their expanded view, are ignored.
+     */
+    public void onContentUsed(ExpandableNotificationRow row) {
+        if (mRows.remove(row)) {
+            mRows.add(row);
+        }
+    }
+
+    public void remove(ExpandableNotificationRow row) {
+        mRows.remove(row);
+    }
+
+    /**
+     * Drops the content views of the least recently used rows which are off screen, until at
+     * most {@code maxSize} rows have optional views inflated or no more rows can be evicted.
+     */
+    public void trimToSize(int maxSize) {
+        trimToSize(maxSize, null /* keep */);
+    }
+
+    private void trimToSize(int maxSize, ExpandableNotificationRow keep) {
+        mTrimCount++;
+        Iterator<ExpandableNotificationRow> it = mRows.iterator();
+        while (mRows.size() > maxSize && it.hasNext()) {
+            ExpandableNotificationRow row = it.next();
+            if (row == keep || isOnScreen(row)) {
+                continue;
+            }
+            if (row.evictContentViews(ExpandableNotificationRow.FLAG_CONTENT_VIEWS_ALL) != 0) {
+                mEvictedRows++;
+            }
+            if (row.getInflatedContentViews() == 0) {
+                it.remove();
+            }
+        }
+    }
+
+    private boolean isOnScreen(ExpandableNotificationRow row) {
+        return row.isShown() && row.getGlobalVisibleRect(mTmpRect);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(0);
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            trimToSize(mBudget / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        trimToSize(0);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("NotificationContentManager state:");
+        pw.print("  tracked="); pw.print(mRows.size());
+        pw.print(" budget="); pw.print(mBudget);
+        pw.print(" evicted="); pw.print(mEvictedRows);
+        pw.print(" trims="); pw.println(mTrimCount);
+    }
+}
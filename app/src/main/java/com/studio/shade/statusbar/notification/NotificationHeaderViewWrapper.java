@@ -26,11 +26,13 @@ import android.graphics.ColorMatrixColorFilter;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffColorFilter;
 import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
 import android.service.notification.StatusBarNotification;
 import android.util.ArraySet;
 import android.view.NotificationHeaderView;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Chronometer;
 import android.widget.ImageView;
 
 import com.studio.shade.R;
@@ -78,6 +80,21 @@ public class NotificationHeaderViewWrapper extends NotificationViewWrapper {
                 com.android.internal.R.id.notification_header);
     }
 
+    @Override
+    public boolean applyPartialUpdate(StatusBarNotification notification, int changes) {
+        if ((changes & NotificationUpdateClassifier.CHANGED_CHRONOMETER) != 0) {
+            View chronometer = mView.findViewById(com.android.internal.R.id.chronometer);
+            if (!(chronometer instanceof Chronometer)) {
+                return false;
+            }
+            // Same as the base set by Notification.Builder
+            long when = notification.getNotification().when;
+            ((Chronometer) chronometer).setBase(
+                    when - System.currentTimeMillis() + SystemClock.elapsedRealtime());
+        }
+        return (changes & ~NotificationUpdateClassifier.CHANGED_CHRONOMETER) == 0;
+    }
+
     private int resolveColor(ImageView icon) {
         if (icon != null && icon.getDrawable() != null) {
             ColorFilter filter = icon.getDrawable().getColorFilter();
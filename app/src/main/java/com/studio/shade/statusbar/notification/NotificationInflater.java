@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.studio.shade.statusbar.notification;
+
+import android.app.Notification;
+import android.content.Context;
+import android.os.CancellationSignal;
+import android.os.Process;
+import android.util.ArrayMap;
+import android.view.Choreographer;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.RemoteViews;
+
+import com.studio.shade.R;
+import com.studio.shade.statusbar.ExpandableNotificationRow;
+import com.studio.shade.statusbar.NotificationContentView;
+import com.studio.shade.statusbar.NotificationData;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Inflates the content views of notifications on a small background pool. Finished inflations
+ * are handed back to the UI thread and committed together on the next frame, so a burst of
+ * notifications only causes a single layout pass.
+ */
+public class NotificationInflater {
+
+    private static final String TAG = "NotificationInflater";
+
+    private static final int MAX_INFLATION_THREADS = 3;
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 5;
+
+    private static final int INDEX_CONTRACTED = 0;
+    private static final int INDEX_EXPANDED = 1;
+    private static final int INDEX_HEADS_UP = 2;
+    private static final int INDEX_PUBLIC = 3;
+    private static final int VIEW_COUNT = 4;
+
+    /**
+     * Callbacks for finished inflations, always called on the UI thread.
+     */
+    public interface InflationCallback {
+
+        /**
+         * The content views of an entry are inflated and should be bound to its row. Any of the
+         * views except the contracted one may be null.
+         */
+        void onInflationFinished(NotificationData.Entry entry, View contracted, View expanded,
+                View headsUp, View publicView);
+
+        void onInflationError(NotificationData.Entry entry, Exception e);
+
+        /**
+         * Called once after all inflations that finished within a frame have been committed.
+         */
+        void onInflationBatchCommitted();
+    }
+
+    private final ArrayMap<String, InflationTask> mRunningTasks = new ArrayMap<>();
+    private final ArrayList<InflationTask> mFinishedTasks = new ArrayList<>();
+    private final ArrayList<InflationTask> mTmpCommitTasks = new ArrayList<>();
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final RemoteViews.OnClickHandler mOnClickHandler;
+    private final InflationCallback mCallback;
+    private final ThreadPoolExecutor mExecutor;
+    private boolean mCommitScheduled;
+    private int mInflationCount;
+    private int mBatchCount;
+
+    private final Choreographer.FrameCallback mCommitCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            commitFinishedInflations();
+        }
+    };
+
+    public NotificationInflater(RemoteViews.OnClickHandler onClickHandler,
+            InflationCallback callback) {
+        mOnClickHandler = onClickHandler;
+        mCallback = callback;
+        mExecutor = new ThreadPoolExecutor(MAX_INFLATION_THREADS, MAX_INFLATION_THREADS,
+                THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new InflationThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creates a cheap single line view showing the title and text of the notification, to be
+     * shown in the row until the real content is inflated.
+     */
+    public HybridNotificationView inflatePlaceholder(ViewGroup parent,
+            Notification notification) {
+        HybridNotificationView placeholder = (HybridNotificationView) LayoutInflater.from(
+                parent.getContext()).inflate(R.layout.hybrid_notification, parent, false);
+        placeholder.bind(HybridGroupManager.resolveTitle(notification),
+                HybridGroupManager.resolveText(notification));
+        return placeholder;
+    }
+
+    /**
+     * Starts inflating the cached content views of an entry into its row. A previous inflation
+     * of the same notification which didn't finish yet is cancelled.
+     *
+     * @param contentViews the optional content views to inflate besides the contracted one, see
+     *        {@link ExpandableNotificationRow#FLAG_CONTENT_VIEWS_ALL}
+     */
+    public void inflate(NotificationData.Entry entry, Context packageContext, int contentViews) {
+        cancel(entry.key);
+        InflationTask task = new InflationTask(entry);
+        mRunningTasks.put(entry.key, task);
+        NotificationContentView privateLayout = entry.row.getPrivateLayout();
+        NotificationContentView publicLayout = entry.row.getPublicLayout();
+        task.apply(INDEX_CONTRACTED, entry.cachedContentView, packageContext, privateLayout);
+        if ((contentViews & ExpandableNotificationRow.FLAG_CONTENT_VIEW_EXPANDED) != 0) {
+            task.apply(INDEX_EXPANDED, entry.cachedBigContentView, packageContext,
+                    privateLayout);
+        }
+        if ((contentViews & ExpandableNotificationRow.FLAG_CONTENT_VIEW_HEADS_UP) != 0) {
+            task.apply(INDEX_HEADS_UP, entry.cachedHeadsUpContentView, packageContext,
+                    privateLayout);
+        }
+        if ((contentViews & ExpandableNotificationRow.FLAG_CONTENT_VIEW_PUBLIC) != 0) {
+            task.apply(INDEX_PUBLIC, entry.cachedPublicContentView, packageContext,
+                    publicLayout);
+        }
+        task.mStarted = true;
+        task.finishIfDone();
+    }
+
+    /**
+     * Cancels a running or not yet committed inflation.
+     *
+     * @return true if there was an inflation to cancel
+     */
+    public boolean cancel(String key) {
+        InflationTask task = mRunningTasks.remove(key);
+        if (task == null) {
+            task = findTask(mFinishedTasks, key);
+            mFinishedTasks.remove(task);
+        }
+        if (task == null) {
+            // Might be cancelled from a callback while its batch is being committed.
+            task = findTask(mTmpCommitTasks, key);
+        }
+        if (task == null || task.mCancelled) {
+            return false;
+        }
+        task.cancel();
+        return true;
+    }
+
+    public boolean isInflating(String key) {
+        return mRunningTasks.containsKey(key) || findTask(mFinishedTasks, key) != null;
+    }
+
+    private static InflationTask findTask(ArrayList<InflationTask> tasks, String key) {
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            InflationTask task = tasks.get(i);
+            if (task.mEntry.key.equals(key)) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private void onTaskFinished(InflationTask task) {
+        if (mRunningTasks.get(task.mEntry.key) == task) {
+            mRunningTasks.remove(task.mEntry.key);
+        }
+        mFinishedTasks.add(task);
+        if (!mCommitScheduled) {
+            mCommitScheduled = true;
+            mChoreographer.postFrameCallback(mCommitCallback);
+        }
+    }
+
+    private void commitFinishedInflations() {
+        mCommitScheduled = false;
+        // Callbacks may cancel or start inflations, so work on a copy.
+        ArrayList<InflationTask> tasks = mTmpCommitTasks;
+        tasks.addAll(mFinishedTasks);
+        mFinishedTasks.clear();
+        final int N = tasks.size();
+        for (int i = 0; i < N; i++) {
+            InflationTask task = tasks.get(i);
+            if (task.mCancelled) {
+                continue;
+            } else if (task.mError != null) {
+                mCallback.onInflationError(task.mEntry, task.mError);
+            } else {
+                mCallback.onInflationFinished(task.mEntry, task.mViews[INDEX_CONTRACTED],
+                        task.mViews[INDEX_EXPANDED], task.mViews[INDEX_HEADS_UP],
+                        task.mViews[INDEX_PUBLIC]);
+            }
+        }
+        tasks.clear();
+        mInflationCount += N;
+        mBatchCount++;
+        mCallback.onInflationBatchCommitted();
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("NotificationInflater state:");
+        pw.print("  running="); pw.println(mRunningTasks.size());
+        pw.print("  pendingCommit="); pw.println(mFinishedTasks.size());
+        pw.print("  committed="); pw.print(mInflationCount);
+        pw.print(" in "); pw.print(mBatchCount); pw.println(" frames");
+    }
+
+    private final class InflationTask {
+        private final NotificationData.Entry mEntry;
+        private final View[] mViews = new View[VIEW_COUNT];
+        private final CancellationSignal[] mCancellationSignals =
+                new CancellationSignal[VIEW_COUNT];
+        private int mPendingViews;
+        private boolean mStarted;
+        private boolean mDone;
+        private boolean mCancelled;
+        private Exception mError;
+
+        InflationTask(NotificationData.Entry entry) {
+            mEntry = entry;
+        }
+
+        void apply(final int index, RemoteViews remoteViews, Context packageContext,
+                ViewGroup parent) {
+            if (remoteViews == null) {
+                return;
+            }
+            mPendingViews++;
+            mCancellationSignals[index] = remoteViews.applyAsync(packageContext, parent,
+                    mExecutor, new RemoteViews.OnViewAppliedListener() {
+                        @Override
+                        public void onViewApplied(View v) {
+                            mCancellationSignals[index] = null;
+                            mViews[index] = v;
+                            mPendingViews--;
+                            finishIfDone();
+                        }
+
+                        @Override
+                        public void onError(Exception e) {
+                            mCancellationSignals[index] = null;
+                            mPendingViews--;
+                            if (mError == null) {
+                                mError = e;
+                            }
+                            finishIfDone();
+                        }
+                    }, mOnClickHandler);
+        }
+
+        void finishIfDone() {
+            if (!mStarted || mDone) {
+                return;
+            }
+            if (mError != null) {
+                // No point in waiting for the other views.
+                cancelPendingViews();
+            } else if (mPendingViews > 0) {
+                return;
+            } else if (mViews[INDEX_CONTRACTED] == null) {
+                mError = new IllegalStateException("no contracted view for " + mEntry.key);
+            }
+            mDone = true;
+            onTaskFinished(this);
+        }
+
+        void cancel() {
+            mDone = true;
+            mCancelled = true;
+            cancelPendingViews();
+        }
+
+        private void cancelPendingViews() {
+            for (int i = 0; i < VIEW_COUNT; i++) {
+                if (mCancellationSignals[i] != null) {
+                    mCancellationSignals[i].cancel();
+                    mCancellationSignals[i] = null;
+                }
+            }
+        }
+    }
+
+    private static final class InflationThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, TAG + " #" + mCount.getAndIncrement());
+            return thread;
+        }
+    }
+}
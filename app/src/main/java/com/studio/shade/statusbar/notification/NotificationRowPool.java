@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.studio.shade.statusbar.notification;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+
+import com.studio.shade.R;
+import com.studio.shade.statusbar.ExpandableNotificationRow;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * A bounded pool of notification rows. Rows of removed notifications are handed back to the
+ * pool and reused for new notifications once they left the window, which saves inflating the
+ * row layout for every notification that is posted.
+ */
+public class NotificationRowPool {
+
+    private static final int MAX_POOL_SIZE = 8;
+    private static final int PREWARM_COUNT = 3;
+
+    private final Context mContext;
+    private final ArrayList<ExpandableNotificationRow> mPool = new ArrayList<>();
+    private ViewGroup mPrewarmParent;
+    private int mPrewarmRemaining;
+    private int mHits;
+    private int mMisses;
+    private int mDropped;
+
+    private final MessageQueue.IdleHandler mPrewarmHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            if (mPrewarmRemaining <= 0 || mPool.size() >= MAX_POOL_SIZE) {
+                mPrewarmRemaining = 0;
+                mPrewarmParent = null;
+                return false;
+            }
+            // One row per idle pass, so we never hold up the looper for long.
+            mPool.add(inflateRow(mPrewarmParent));
+            mPrewarmRemaining--;
+            return true;
+        }
+    };
+
+    public NotificationRowPool(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Inflates a few rows whenever the UI thread is idle, such that the first notifications
+     * don't have to wait for the inflation.
+     */
+    public void prewarm(ViewGroup parent) {
+        if (mPrewarmRemaining == 0) {
+            Looper.myQueue().addIdleHandler(mPrewarmHandler);
+        }
+        mPrewarmParent = parent;
+        mPrewarmRemaining = PREWARM_COUNT;
+    }
+
+    /**
+     * @return a row which was reset for reuse, or a newly inflated one if none is available
+     */
+    public ExpandableNotificationRow obtain(ViewGroup parent) {
+        for (int i = mPool.size() - 1; i >= 0; i--) {
+            ExpandableNotificationRow row = mPool.get(i);
+            if (isReusable(row)) {
+                mPool.remove(i);
+                row.resetForReuse();
+                mHits++;
+                return row;
+            }
+        }
+        mMisses++;
+        return inflateRow(parent);
+    }
+
+    /**
+     * Hands back the row of a notification which was removed. The row may still be animating
+     * away, it is only reused once it is detached.
+     */
+    public void recycle(ExpandableNotificationRow row) {
+        if (mPool.size() >= MAX_POOL_SIZE || mPool.contains(row)) {
+            mDropped++;
+            return;
+        }
+        mPool.add(row);
+    }
+
+    /**
+     * Drops all pooled rows, e.g. because the configuration they were inflated with changed.
+     */
+    public void clear() {
+        mPool.clear();
+    }
+
+    private ExpandableNotificationRow inflateRow(ViewGroup parent) {
+        return (ExpandableNotificationRow) LayoutInflater.from(mContext).inflate(
+                R.layout.status_bar_notification_row, parent, false);
+    }
+
+    private static boolean isReusable(ExpandableNotificationRow row) {
+        // Transient views are attached while they animate away, so this covers those too.
+        return row.getParent() == null && !row.isAttachedToWindow() && !row.isHeadsUp()
+                && !row.isPinned() && !row.isSummaryWithChildren();
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("NotificationRowPool state:");
+        pw.print("  pooled="); pw.print(mPool.size());
+        pw.print(" hits="); pw.print(mHits);
+        pw.print(" misses="); pw.print(mMisses);
+        pw.print(" dropped="); pw.println(mDropped);
+    }
+}
@@ -17,8 +17,10 @@
 package com.studio.shade.statusbar.notification;
 
 import android.animation.ValueAnimator;
+import android.app.Notification;
 import android.content.Context;
 import android.graphics.Color;
+import android.os.Bundle;
 import android.service.notification.StatusBarNotification;
 import android.view.View;
 import android.widget.ImageView;
@@ -138,6 +140,32 @@ public class NotificationTemplateViewWrapper extends NotificationHeaderViewWrapp
         super.notifyContentUpdated(notification);
     }
 
+    @Override
+    public boolean applyPartialUpdate(StatusBarNotification notification, int changes) {
+        final Bundle extras = notification.getNotification().extras;
+        if ((changes & NotificationUpdateClassifier.CHANGED_PROGRESS) != 0) {
+            if (mProgressBar == null) {
+                return false;
+            }
+            boolean indeterminate = extras.getBoolean(
+                    Notification.EXTRA_PROGRESS_INDETERMINATE);
+            if (!indeterminate) {
+                mProgressBar.setMax(extras.getInt(Notification.EXTRA_PROGRESS_MAX));
+                mProgressBar.setProgress(extras.getInt(Notification.EXTRA_PROGRESS));
+            }
+            mProgressBar.setIndeterminate(indeterminate);
+        }
+        if ((changes & NotificationUpdateClassifier.CHANGED_TEXT) != 0) {
+            if (mText == null) {
+                return false;
+            }
+            mText.setText(extras.getCharSequence(Notification.EXTRA_TEXT));
+        }
+        return super.applyPartialUpdate(notification, changes
+                & ~(NotificationUpdateClassifier.CHANGED_PROGRESS
+                        | NotificationUpdateClassifier.CHANGED_TEXT));
+    }
+
     @Override
     protected void updateInvertHelper() {
         super.updateInvertHelper();
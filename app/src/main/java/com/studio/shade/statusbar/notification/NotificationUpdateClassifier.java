@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+
+package com.studio.shade.statusbar.notification;
+
+import android.app.Notification;
+import android.app.RemoteInput;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Icon;
+import android.os.Bundle;
+import android.text.Spanned;
+import android.text.TextUtils;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Finds out whether an update of a notification only changed values which can be patched into
+ * the already inflated views, like the progress of a download, instead of having to reapply all
+ * of its RemoteViews.
+ */
+public class NotificationUpdateClassifier {
+
+    /** The update has to be applied by reapplying or reinflating the content views. */
+    public static final int FULL_UPDATE = -1;
+
+    public static final int CHANGED_PROGRESS = 1 << 0;
+    public static final int CHANGED_TEXT = 1 << 1;
+    public static final int CHANGED_CHRONOMETER = 1 << 2;
+
+    /**
+     * Compares two versions of a notification which both use the standard templates.
+     *
+     * @return {@link #FULL_UPDATE} or a combination of the CHANGED_* flags, 0 if nothing visible
+     *         changed at all
+     */
+    public static int classify(Notification oldNotification, Notification newNotification) {
+        if (hasCustomViews(oldNotification) || hasCustomViews(newNotification)
+                || oldNotification.publicVersion != null
+                || newNotification.publicVersion != null) {
+            return FULL_UPDATE;
+        }
+        if (oldNotification.flags != newNotification.flags
+                || oldNotification.iconLevel != newNotification.iconLevel
+                || oldNotification.number != newNotification.number
+                || oldNotification.color != newNotification.color
+                || oldNotification.visibility != newNotification.visibility
+                || oldNotification.priority != newNotification.priority
+                || !Objects.equals(oldNotification.category, newNotification.category)
+                || !Objects.equals(oldNotification.getGroup(), newNotification.getGroup())
+                || !Objects.equals(oldNotification.getSortKey(), newNotification.getSortKey())
+                || !Objects.equals(oldNotification.contentIntent, newNotification.contentIntent)
+                || !Objects.equals(oldNotification.deleteIntent, newNotification.deleteIntent)
+                || !Objects.equals(oldNotification.fullScreenIntent,
+                        newNotification.fullScreenIntent)
+                || !sameIcon(oldNotification.getSmallIcon(), newNotification.getSmallIcon())
+                || !sameIcon(oldNotification.getLargeIcon(), newNotification.getLargeIcon())
+                || !sameActions(oldNotification.actions, newNotification.actions)) {
+            return FULL_UPDATE;
+        }
+        final Bundle oldExtras = oldNotification.extras;
+        final Bundle newExtras = newNotification.extras;
+        if (!oldExtras.keySet().equals(newExtras.keySet())) {
+            return FULL_UPDATE;
+        }
+        int changes = 0;
+        for (String key : newExtras.keySet()) {
+            final Object oldValue = oldExtras.get(key);
+            final Object newValue = newExtras.get(key);
+            if (Notification.EXTRA_BUILDER_APPLICATION_INFO.equals(key)
+                    || sameValue(oldValue, newValue)) {
+                continue;
+            }
+            if (Notification.EXTRA_PROGRESS.equals(key)
+                    || Notification.EXTRA_PROGRESS_MAX.equals(key)
+                    || Notification.EXTRA_PROGRESS_INDETERMINATE.equals(key)) {
+                changes |= CHANGED_PROGRESS;
+            } else if (Notification.EXTRA_TEXT.equals(key)
+                    && oldValue != null && newValue != null
+                    && newExtras.getString(Notification.EXTRA_TEMPLATE) == null) {
+                // Styles show the text in different places, only the base template is simple.
+                changes |= CHANGED_TEXT;
+            } else {
+                return FULL_UPDATE;
+            }
+        }
+        if ((changes & CHANGED_PROGRESS) != 0
+                && hasProgress(oldExtras) != hasProgress(newExtras)) {
+            // The progress bar appears or disappears, which changes the layout.
+            return FULL_UPDATE;
+        }
+        if (oldNotification.when != newNotification.when
+                && newExtras.getBoolean(Notification.EXTRA_SHOW_WHEN)) {
+            if (oldNotification.when == 0 || newNotification.when == 0
+                    || !newExtras.getBoolean(Notification.EXTRA_SHOW_CHRONOMETER)) {
+                return FULL_UPDATE;
+            }
+            changes |= CHANGED_CHRONOMETER;
+        }
+        return changes;
+    }
+
+    private static boolean hasCustomViews(Notification n) {
+        return n.contentView != null || n.bigContentView != null
+                || n.headsUpContentView != null;
+    }
+
+    private static boolean hasProgress(Bundle extras) {
+        return extras.getInt(Notification.EXTRA_PROGRESS_MAX, 0) != 0
+                || extras.getBoolean(Notification.EXTRA_PROGRESS_INDETERMINATE);
+    }
+
+    private static boolean sameIcon(Icon a, Icon b) {
+        return a == b || (a != null && b != null && a.sameAs(b));
+    }
+
+    private static boolean sameActions(Notification.Action[] a, Notification.Action[] b) {
+        final int length = a != null ? a.length : 0;
+        if (length != (b != null ? b.length : 0)) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (!sameValue(a[i].title, b[i].title)
+                    || !Objects.equals(a[i].actionIntent, b[i].actionIntent)
+                    || !sameRemoteInputs(a[i].getRemoteInputs(), b[i].getRemoteInputs())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameRemoteInputs(RemoteInput[] a, RemoteInput[] b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a.length != b.length) {
+            return false;
+        }
+        for (int i = 0; i < a.length; i++) {
+            if (!Objects.equals(a[i].getResultKey(), b[i].getResultKey())
+                    || a[i].getAllowFreeFormInput() != b[i].getAllowFreeFormInput()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameValue(Object a, Object b) {
+        if (Objects.equals(a, b)) {
+            return true;
+        } else if (a == null || b == null) {
+            return false;
+        } else if (a instanceof CharSequence && b instanceof CharSequence) {
+            // Styled text can't be compared cheaply, so it always counts as changed.
+            return !(a instanceof Spanned) && !(b instanceof Spanned)
+                    && TextUtils.equals((CharSequence) a, (CharSequence) b);
+        } else if (a instanceof Bitmap && b instanceof Bitmap) {
+            return ((Bitmap) a).sameAs((Bitmap) b);
+        } else if (a instanceof Icon && b instanceof Icon) {
+            return ((Icon) a).sameAs((Icon) b);
+        } else if (a instanceof Object[] && b instanceof Object[]) {
+            final Object[] arrayA = (Object[]) a;
+            final Object[] arrayB = (Object[]) b;
+            if (arrayA.length != arrayB.length) {
+                return false;
+            }
+            for (int i = 0; i < arrayA.length; i++) {
+                if (!sameValue(arrayA[i], arrayB[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return Arrays.deepEquals(new Object[] { a }, new Object[] { b });
+    }
+}
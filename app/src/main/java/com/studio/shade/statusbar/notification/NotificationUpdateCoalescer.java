@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+
+package com.studio.shade.statusbar.notification;
+
+import android.service.notification.StatusBarNotification;
+import android.util.ArrayMap;
+import android.view.Choreographer;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Holds back updates of notifications until the next frame, so a notification which is updated
+ * several times within one frame is only updated once, with its latest version.
+ */
+public class NotificationUpdateCoalescer {
+
+    /**
+     * Called on the UI thread with the latest update of every notification posted during the
+     * last frame.
+     */
+    public interface Callback {
+        void onApplyUpdate(StatusBarNotification notification);
+    }
+
+    private final ArrayMap<String, StatusBarNotification> mPendingUpdates = new ArrayMap<>();
+    private final ArrayList<StatusBarNotification> mTmpUpdates = new ArrayList<>();
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final Callback mCallback;
+    private boolean mFlushScheduled;
+    private int mUpdateCount;
+    private int mAppliedCount;
+
+    private final Choreographer.FrameCallback mFlushCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            flush();
+        }
+    };
+
+    public NotificationUpdateCoalescer(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Schedules an update, replacing an update of the same notification which wasn't applied yet.
+     */
+    public void post(StatusBarNotification notification) {
+        mPendingUpdates.put(notification.getKey(), notification);
+        mUpdateCount++;
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mChoreographer.postFrameCallback(mFlushCallback);
+        }
+    }
+
+    /**
+     * Drops the pending update of a notification, which has to be done whenever it is updated,
+     * removed or added in any other way so the older pending version doesn't overwrite it.
+     */
+    public void cancel(String key) {
+        mPendingUpdates.remove(key);
+    }
+
+    public boolean hasPendingUpdate(String key) {
+        return mPendingUpdates.containsKey(key);
+    }
+
+    private void flush() {
+        mFlushScheduled = false;
+        // The callback may post or cancel updates, so work on a copy.
+        ArrayList<StatusBarNotification> updates = mTmpUpdates;
+        updates.addAll(mPendingUpdates.values());
+        mPendingUpdates.clear();
+        final int N = updates.size();
+        for (int i = 0; i < N; i++) {
+            mCallback.onApplyUpdate(updates.get(i));
+        }
+        updates.clear();
+        mAppliedCount += N;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("NotificationUpdateCoalescer state:");
+        pw.print("  pending="); pw.println(mPendingUpdates.size());
+        pw.print("  posted="); pw.print(mUpdateCount);
+        pw.print(" applied="); pw.println(mAppliedCount);
+    }
+}
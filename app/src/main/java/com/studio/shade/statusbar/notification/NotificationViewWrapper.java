@@ -86,6 +86,16 @@ public abstract class NotificationViewWrapper implements TransformableView {
         mDarkInitialized = false;
     };
 
+    /**
+     * Patches a small update of the notification directly into the views of this wrapper.
+     *
+     * @param changes the changed values, see {@link NotificationUpdateClassifier}
+     * @return false if the update can't be applied this way and the view has to be reapplied
+     */
+    public boolean applyPartialUpdate(StatusBarNotification notification, int changes) {
+        return changes == 0;
+    }
+
 
     protected void startIntensityAnimation(ValueAnimator.AnimatorUpdateListener updateListener,
             boolean dark, long delay, Animator.AnimatorListener listener) {
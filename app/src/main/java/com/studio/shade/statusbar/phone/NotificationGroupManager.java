@@ -18,6 +18,7 @@ package com.studio.shade.statusbar.phone;
 
 import android.service.notification.StatusBarNotification;
 import android.support.annotation.Nullable;
+import android.util.ArraySet;
 
 import com.studio.shade.statusbar.ExpandableNotificationRow;
 import com.studio.shade.statusbar.NotificationData;
@@ -42,6 +43,14 @@ public class NotificationGroupManager implements HeadsUpManager.OnHeadsUpChanged
     private OnGroupChangeListener mListener;
     private int mBarState = -1;
     private HashMap<String, StatusBarNotification> mIsolatedEntries = new HashMap<>();
+    /**
+     * The keys of the isolated entries by the group key they would have if they weren't
+     * isolated, so that the isolated children of a group can be found without a full scan.
+     */
+    private final HashMap<String, ArraySet<String>> mIsolatedKeysByGroup = new HashMap<>();
+    /** The group key each isolated entry is indexed with in {@link #mIsolatedKeysByGroup}. */
+    private final HashMap<String, String> mIsolatedGroupKeys = new HashMap<>();
+    private final ArrayList<NotificationGroup> mTmpGroups = new ArrayList<>();
     private HeadsUpManager mHeadsUpManager;
 
     public void setOnGroupChangeListener(OnGroupChangeListener listener) {
@@ -73,7 +82,7 @@ public class NotificationGroupManager implements HeadsUpManager.OnHeadsUpChanged
 
     public void onEntryRemoved(NotificationData.Entry removed) {
         onEntryRemovedInternal(removed, removed.notification);
-        mIsolatedEntries.remove(removed.key);
+        removeIsolatedEntry(removed.key);
     }
 
     /**
@@ -172,22 +181,54 @@ public class NotificationGroupManager implements HeadsUpManager.OnHeadsUpChanged
     }
 
     private int getNumberOfIsolatedChildren(String groupKey) {
-        int count = 0;
-        for (StatusBarNotification sbn : mIsolatedEntries.values()) {
-            if (sbn.getGroupKey().equals(groupKey) && isIsolated(sbn)) {
-                count++;
-            }
-        }
-        return count;
+        ArraySet<String> isolatedKeys = mIsolatedKeysByGroup.get(groupKey);
+        return isolatedKeys != null ? isolatedKeys.size() : 0;
     }
 
     private NotificationData.Entry getIsolatedChild(String groupKey) {
-        for (StatusBarNotification sbn : mIsolatedEntries.values()) {
-            if (sbn.getGroupKey().equals(groupKey) && isIsolated(sbn)) {
-                return mGroupMap.get(sbn.getKey()).summary;
-            }
+        ArraySet<String> isolatedKeys = mIsolatedKeysByGroup.get(groupKey);
+        if (isolatedKeys == null) {
+            return null;
+        }
+        // An isolated entry is the summary of the group named after its own key
+        NotificationGroup group = mGroupMap.get(isolatedKeys.valueAt(0));
+        return group != null ? group.summary : null;
+    }
+
+    private void putIsolatedEntry(StatusBarNotification sbn) {
+        final String key = sbn.getKey();
+        final String groupKey = sbn.getGroupKey();
+        mIsolatedEntries.put(key, sbn);
+        // The group key of an entry can change in place when it is rebundled, so the index
+        // remembers the key it was added with.
+        String previousGroupKey = mIsolatedGroupKeys.put(key, groupKey);
+        if (groupKey.equals(previousGroupKey)) {
+            return;
+        }
+        if (previousGroupKey != null) {
+            removeFromIsolatedIndex(key, previousGroupKey);
+        }
+        ArraySet<String> isolatedKeys = mIsolatedKeysByGroup.get(groupKey);
+        if (isolatedKeys == null) {
+            isolatedKeys = new ArraySet<>();
+            mIsolatedKeysByGroup.put(groupKey, isolatedKeys);
+        }
+        isolatedKeys.add(key);
+    }
+
+    private void removeIsolatedEntry(String key) {
+        mIsolatedEntries.remove(key);
+        String groupKey = mIsolatedGroupKeys.remove(key);
+        if (groupKey != null) {
+            removeFromIsolatedIndex(key, groupKey);
+        }
+    }
+
+    private void removeFromIsolatedIndex(String key, String groupKey) {
+        ArraySet<String> isolatedKeys = mIsolatedKeysByGroup.get(groupKey);
+        if (isolatedKeys != null && isolatedKeys.remove(key) && isolatedKeys.isEmpty()) {
+            mIsolatedKeysByGroup.remove(groupKey);
         }
-        return null;
     }
 
     public void onEntryUpdated(NotificationData.Entry entry,
@@ -197,7 +238,7 @@ public class NotificationGroupManager implements HeadsUpManager.OnHeadsUpChanged
         }
         onEntryAdded(entry);
         if (isIsolated(entry.notification)) {
-            mIsolatedEntries.put(entry.key, entry.notification);
+            putIsolatedEntry(entry.notification);
             String oldKey = oldNotification.getGroupKey();
             String newKey = entry.notification.getGroupKey();
             if (!oldKey.equals(newKey)) {
@@ -252,7 +293,8 @@ public class NotificationGroupManager implements HeadsUpManager.OnHeadsUpChanged
     public void collapseAllGroups() {
         // Because notifications can become isolated when the group becomes suppressed it can
         // lead to concurrent modifications while looping. We need to make a copy.
-        ArrayList<NotificationGroup> groupCopy = new ArrayList<>(mGroupMap.values());
+        ArrayList<NotificationGroup> groupCopy = mTmpGroups;
+        groupCopy.addAll(mGroupMap.values());
         int size = groupCopy.size();
         for (int i = 0; i < size; i++) {
             NotificationGroup group =  groupCopy.get(i);
@@ -261,6 +303,7 @@ public class NotificationGroupManager implements HeadsUpManager.OnHeadsUpChanged
             }
             updateSuppression(group);
         }
+        groupCopy.clear();
     }
 
     /**
@@ -378,7 +421,7 @@ public class NotificationGroupManager implements HeadsUpManager.OnHeadsUpChanged
                 // We will be isolated now, so lets update the groups
                 onEntryRemovedInternal(entry, entry.notification);
 
-                mIsolatedEntries.put(sbn.getKey(), sbn);
+                putIsolatedEntry(sbn);
 
                 onEntryAdded(entry);
                 // We also need to update the suppression of the old group, because this call comes
@@ -394,7 +437,7 @@ public class NotificationGroupManager implements HeadsUpManager.OnHeadsUpChanged
             if (mIsolatedEntries.containsKey(sbn.getKey())) {
                 // not isolated anymore, we need to update the groups
                 onEntryRemovedInternal(entry, entry.notification);
-                mIsolatedEntries.remove(sbn.getKey());
+                removeIsolatedEntry(sbn.getKey());
                 onEntryAdded(entry);
                 mListener.onGroupsChanged();
             }
@@ -6,6 +6,7 @@ import android.content.res.Resources;
 import android.graphics.Color;
 import android.graphics.Rect;
 import android.support.annotation.NonNull;
+import android.util.ArraySet;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.ImageView;
@@ -35,6 +36,8 @@ public class NotificationIconAreaController {
     private IconMerger mNotificationIcons;
     private ImageView mMoreIcon;
     private final Rect mTintArea = new Rect();
+    private final ArrayList<StatusBarIconView> mTmpIconsToShow = new ArrayList<>();
+    private final ArraySet<View> mTmpIconSet = new ArraySet<>();
 
     public NotificationIconAreaController(Context context, PhoneStatusBar phoneStatusBar) {
         mPhoneStatusBar = phoneStatusBar;
@@ -144,53 +147,61 @@ public class NotificationIconAreaController {
      * Updates the notifications with the given list of notifications to display.
      */
     public void updateNotificationIcons(NotificationData notificationData) {
-        final LinearLayout.LayoutParams params = generateIconLayoutParams();
-
         ArrayList<NotificationData.Entry> activeNotifications =
                 notificationData.getActiveNotifications();
         final int size = activeNotifications.size();
-        ArrayList<StatusBarIconView> toShow = new ArrayList<>(size);
+        final ArrayList<StatusBarIconView> toShow = mTmpIconsToShow;
+        final ArraySet<View> toShowSet = mTmpIconSet;
 
         // Filter out ambient notifications and notification children.
         for (int i = 0; i < size; i++) {
             NotificationData.Entry ent = activeNotifications.get(i);
             if (shouldShowNotification(ent, notificationData)) {
                 toShow.add(ent.icon);
+                toShowSet.add(ent.icon);
             }
         }
 
-        ArrayList<View> toRemove = new ArrayList<>();
-        for (int i = 0; i < mNotificationIcons.getChildCount(); i++) {
-            View child = mNotificationIcons.getChildAt(i);
-            if (!toShow.contains(child)) {
-                toRemove.add(child);
-            }
-        }
-
-        final int toRemoveCount = toRemove.size();
-        for (int i = 0; i < toRemoveCount; i++) {
-            mNotificationIcons.removeView(toRemove.get(i));
-        }
-
-        for (int i = 0; i < toShow.size(); i++) {
-            View v = toShow.get(i);
-            if (v.getParent() == null) {
-                mNotificationIcons.addView(v, i, params);
+        // Every entry keeps its icon view, so the views themselves identify the notifications.
+        // Only the differences to the current children are applied, which leaves the icon area
+        // untouched and doesn't request a layout if nothing changed.
+        for (int i = mNotificationIcons.getChildCount() - 1; i >= 0; i--) {
+            if (!toShowSet.contains(mNotificationIcons.getChildAt(i))) {
+                mNotificationIcons.removeViewAt(i);
             }
         }
 
-        // Re-sort notification icons
-        final int childCount = mNotificationIcons.getChildCount();
-        for (int i = 0; i < childCount; i++) {
-            View actual = mNotificationIcons.getChildAt(i);
+        LinearLayout.LayoutParams params = null;
+        final int showCount = toShow.size();
+        for (int i = 0; i < showCount; i++) {
             StatusBarIconView expected = toShow.get(i);
+            View actual = i < mNotificationIcons.getChildCount()
+                    ? mNotificationIcons.getChildAt(i) : null;
             if (actual == expected) {
                 continue;
             }
-            mNotificationIcons.removeView(expected);
-            mNotificationIcons.addView(expected, i);
+            if (expected.getParent() == null) {
+                if (params == null) {
+                    params = generateIconLayoutParams();
+                }
+                mNotificationIcons.addView(expected, i, params);
+            } else if (i + 1 < mNotificationIcons.getChildCount()
+                    && mNotificationIcons.getChildAt(i + 1) == expected) {
+                // The icon at this position moved further back, move only that one instead of
+                // every icon in between.
+                mNotificationIcons.removeViewAt(i);
+                mNotificationIcons.addView(actual,
+                        Math.min(toShow.indexOf(actual), mNotificationIcons.getChildCount()));
+            } else {
+                mNotificationIcons.removeView(expected);
+                mNotificationIcons.addView(expected, i);
+            }
         }
+        toShow.clear();
+        toShowSet.clear();
 
+        // An icon may have changed in place, e.g. to or from a grayscale icon, so its tint is
+        // always reevaluated. Icons which already have the right tint are left alone.
         applyNotificationIconsTint();
     }
 
@@ -203,8 +214,12 @@ public class NotificationIconAreaController {
             boolean isPreL = Boolean.TRUE.equals(v.getTag(R.id.icon_is_pre_L));
             boolean colorize = !isPreL || NotificationUtils.isGrayscale(v, mNotificationColorUtil);
             if (colorize) {
-                v.setImageTintList(ColorStateList.valueOf(
-                        StatusBarIconController.getTint(mTintArea, v, mIconTint)));
+                int tint = StatusBarIconController.getTint(mTintArea, v, mIconTint);
+                ColorStateList tintList = v.getImageTintList();
+                if (tintList == null || tintList.isStateful()
+                        || tintList.getDefaultColor() != tint) {
+                    v.setImageTintList(ColorStateList.valueOf(tint));
+                }
             }
         }
     }
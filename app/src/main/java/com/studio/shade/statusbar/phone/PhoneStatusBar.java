@@ -2641,9 +2641,18 @@ public class PhoneStatusBar extends BaseStatusBar implements DemoMode,
             synchronized (mNotificationData) {
                 mNotificationData.dump(pw, "  ");
             }
+            mNotificationInflater.dump(pw);
+            mRowPool.dump(pw);
+            mUpdateCoalescer.dump(pw);
+            mContentManager.dump(pw);
+            mStackScroller.dump(pw);
 
             mIconController.dump(pw);
 
+            if (mQSPanel != null) {
+                mQSPanel.getHost().dump(pw);
+            }
+
             if (false) {
                 pw.println("see the logcat for a dump of the views we have created.");
                 // must happen on ui thread
@@ -26,6 +26,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Process;
+import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.provider.Settings.Secure;
@@ -73,6 +74,7 @@ import com.studio.shade.tuner.NightModeTile;
 import com.studio.shade.tuner.TunerService;
 import com.studio.shade.tuner.TunerService.Tunable;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -87,6 +89,13 @@ public class QSTileHost implements QSTile.Host, Tunable {
 
     public static final String TILES_SETTING = "sysui_qs_tiles";
 
+    /**
+     * Number of loopers the tiles compute their state on. Each tile stays on one looper so its
+     * messages remain ordered, while a slow tile only holds up the tiles sharing its looper.
+     * 1 computes all tiles on the host looper.
+     */
+    private static final int TILE_THREADS = SystemProperties.getInt("debug.qs.tile_threads", 3);
+
     private final Context mContext;
     private final PhoneStatusBar mStatusBar;
     private final LinkedHashMap<String, QSTile<?>> mTiles = new LinkedHashMap<>();
@@ -99,6 +108,8 @@ public class QSTileHost implements QSTile.Host, Tunable {
     private final HotspotController mHotspot;
     private final CastController mCast;
     private final Looper mLooper;
+    private final Looper[] mTileLoopers;
+    private int mNextTileLooper;
     private final FlashlightController mFlashlight;
     private final UserSwitcherController mUserSwitcherController;
     private final UserInfoController mUserInfoController;
@@ -148,6 +159,16 @@ public class QSTileHost implements QSTile.Host, Tunable {
         ht.start();
         mLooper = ht.getLooper();
 
+        mTileLoopers = new Looper[Math.max(TILE_THREADS, 1)];
+        mTileLoopers[0] = mLooper;
+        for (int i = 1; i < mTileLoopers.length; i++) {
+            final HandlerThread tileThread = new HandlerThread(
+                    QSTileHost.class.getSimpleName() + " tiles #" + i,
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            tileThread.start();
+            mTileLoopers[i] = tileThread.getLooper();
+        }
+
         mServices = new TileServices(this, mLooper);
 
         TunerService.get(mContext).addTunable(this, TILES_SETTING);
@@ -212,6 +233,21 @@ public class QSTileHost implements QSTile.Host, Tunable {
         return mLooper;
     }
 
+    @Override
+    public Looper getTileLooper() {
+        final Looper looper = mTileLoopers[mNextTileLooper];
+        mNextTileLooper = (mNextTileLooper + 1) % mTileLoopers.length;
+        return looper;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("QSTileHost state:");
+        pw.print("  tileThreads="); pw.println(mTileLoopers.length);
+        for (QSTile<?> tile : mTiles.values()) {
+            tile.dump(pw);
+        }
+    }
+
     @Override
     public Context getContext() {
         return mContext;
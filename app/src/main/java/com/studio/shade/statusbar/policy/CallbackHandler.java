@@ -19,11 +19,15 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.telephony.SubscriptionInfo;
+import android.util.SparseArray;
+import android.view.Choreographer;
+
 import com.android.internal.annotations.VisibleForTesting;
 import com.studio.shade.statusbar.policy.NetworkController.EmergencyListener;
 import com.studio.shade.statusbar.policy.NetworkController.IconState;
 import com.studio.shade.statusbar.policy.NetworkController.SignalCallback;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -31,6 +35,10 @@ import java.util.List;
 /**
  * Implements network listeners and forwards the calls along onto other listeners but on
  * the current or specified Looper.
+ *
+ * In coalescing mode only the latest wifi indicators, mobile indicators per subscription and
+ * subscription list are kept and delivered at most once per frame, so a burst of signal
+ * changes doesn't rebind the listeners for every intermediate state.
  */
 public class CallbackHandler extends Handler implements EmergencyListener, SignalCallback {
     private static final int MSG_EMERGENCE_CHANGED           = 0;
@@ -41,18 +49,51 @@ public class CallbackHandler extends Handler implements EmergencyListener, Signa
     private static final int MSG_MOBILE_DATA_ENABLED_CHANGED = 5;
     private static final int MSG_ADD_REMOVE_EMERGENCY        = 6;
     private static final int MSG_ADD_REMOVE_SIGNAL           = 7;
+    private static final int MSG_SCHEDULE_FLUSH              = 8;
 
     // All the callbacks.
     private final ArrayList<EmergencyListener> mEmergencyListeners = new ArrayList<>();
     private final ArrayList<SignalCallback> mSignalCallbacks = new ArrayList<>();
 
+    private final boolean mCoalesce;
+
+    // Pending updates in coalescing mode, guarded by mPendingLock. The delivering copies are
+    // only accessed on the handler's looper and swapped with the pending ones on each flush.
+    private final Object mPendingLock = new Object();
+    private WifiIndicators mPendingWifi = new WifiIndicators();
+    private WifiIndicators mDeliveringWifi = new WifiIndicators();
+    private SparseArray<MobileIndicators> mPendingMobile = new SparseArray<>();
+    private SparseArray<MobileIndicators> mDeliveringMobile = new SparseArray<>();
+    private final ArrayList<MobileIndicators> mMobilePool = new ArrayList<>();
+    private List<SubscriptionInfo> mPendingSubs;
+    private boolean mHasPendingSubs;
+    private boolean mFlushScheduled;
+
+    // Statistics of the coalescing mode, guarded by mPendingLock.
+    private long mUpdateCount;
+    private long mMergedCount;
+    private long mFlushCount;
+
+    private final Choreographer.FrameCallback mFlushCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            flushPendingUpdates();
+        }
+    };
+
     public CallbackHandler() {
+        this(false);
+    }
+
+    public CallbackHandler(boolean coalesce) {
         super();
+        mCoalesce = coalesce;
     }
 
     @VisibleForTesting
     CallbackHandler(Looper looper) {
         super(looper);
+        mCoalesce = false;
     }
 
     @Override
@@ -103,6 +144,81 @@ public class CallbackHandler extends Handler implements EmergencyListener, Signa
                     mSignalCallbacks.remove((SignalCallback) msg.obj);
                 }
                 break;
+            case MSG_SCHEDULE_FLUSH:
+                // The choreographer has to be obtained on our own looper.
+                Choreographer.getInstance().postFrameCallback(mFlushCallback);
+                break;
+        }
+    }
+
+    private void flushPendingUpdates() {
+        List<SubscriptionInfo> subs;
+        boolean hasSubs;
+        boolean hasWifi;
+        synchronized (mPendingLock) {
+            mFlushScheduled = false;
+            mFlushCount++;
+            hasSubs = mHasPendingSubs;
+            subs = mPendingSubs;
+            mHasPendingSubs = false;
+            mPendingSubs = null;
+
+            WifiIndicators wifi = mPendingWifi;
+            mPendingWifi = mDeliveringWifi;
+            mDeliveringWifi = wifi;
+            hasWifi = wifi.pending;
+            wifi.pending = false;
+
+            SparseArray<MobileIndicators> mobile = mPendingMobile;
+            mPendingMobile = mDeliveringMobile;
+            mDeliveringMobile = mobile;
+        }
+
+        // The subscriptions go first, as listeners create their mobile state for them.
+        if (hasSubs) {
+            for (SignalCallback callback : mSignalCallbacks) {
+                callback.setSubs(subs);
+            }
+        }
+        if (hasWifi) {
+            WifiIndicators wifi = mDeliveringWifi;
+            for (SignalCallback callback : mSignalCallbacks) {
+                callback.setWifiIndicators(wifi.enabled, wifi.statusIcon, wifi.qsIcon,
+                        wifi.activityIn, wifi.activityOut, wifi.description);
+            }
+        }
+        final int N = mDeliveringMobile.size();
+        for (int i = 0; i < N; i++) {
+            MobileIndicators mobile = mDeliveringMobile.valueAt(i);
+            for (SignalCallback callback : mSignalCallbacks) {
+                callback.setMobileDataIndicators(mobile.statusIcon, mobile.qsIcon,
+                        mobile.statusType, mobile.qsType, mobile.activityIn, mobile.activityOut,
+                        mobile.typeContentDescription, mobile.description, mobile.isWide,
+                        mobile.subId);
+            }
+        }
+        synchronized (mPendingLock) {
+            for (int i = 0; i < N; i++) {
+                mMobilePool.add(mDeliveringMobile.valueAt(i));
+            }
+        }
+        mDeliveringMobile.clear();
+    }
+
+    /**
+     * Counts a coalesced update and makes sure a flush is scheduled. Must be called with
+     * mPendingLock held.
+     *
+     * @param merged whether the update replaced one which wasn't delivered yet
+     */
+    private void onUpdatePendingLocked(boolean merged) {
+        mUpdateCount++;
+        if (merged) {
+            mMergedCount++;
+        }
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            sendEmptyMessage(MSG_SCHEDULE_FLUSH);
         }
     }
 
@@ -110,6 +226,21 @@ public class CallbackHandler extends Handler implements EmergencyListener, Signa
     public void setWifiIndicators(final boolean enabled, final IconState statusIcon,
             final IconState qsIcon, final boolean activityIn, final boolean activityOut,
             final String description) {
+        if (mCoalesce) {
+            synchronized (mPendingLock) {
+                WifiIndicators wifi = mPendingWifi;
+                boolean merged = wifi.pending;
+                wifi.pending = true;
+                wifi.enabled = enabled;
+                wifi.statusIcon = statusIcon;
+                wifi.qsIcon = qsIcon;
+                wifi.activityIn = activityIn;
+                wifi.activityOut = activityOut;
+                wifi.description = description;
+                onUpdatePendingLocked(merged);
+            }
+            return;
+        }
         post(new Runnable() {
             @Override
             public void run() {
@@ -126,6 +257,30 @@ public class CallbackHandler extends Handler implements EmergencyListener, Signa
             final int statusType, final int qsType,final boolean activityIn,
             final boolean activityOut, final String typeContentDescription,
             final String description, final boolean isWide, final int subId) {
+        if (mCoalesce) {
+            synchronized (mPendingLock) {
+                MobileIndicators mobile = mPendingMobile.get(subId);
+                boolean merged = mobile != null;
+                if (mobile == null) {
+                    int poolSize = mMobilePool.size();
+                    mobile = poolSize > 0 ? mMobilePool.remove(poolSize - 1)
+                            : new MobileIndicators();
+                    mPendingMobile.put(subId, mobile);
+                }
+                mobile.statusIcon = statusIcon;
+                mobile.qsIcon = qsIcon;
+                mobile.statusType = statusType;
+                mobile.qsType = qsType;
+                mobile.activityIn = activityIn;
+                mobile.activityOut = activityOut;
+                mobile.typeContentDescription = typeContentDescription;
+                mobile.description = description;
+                mobile.isWide = isWide;
+                mobile.subId = subId;
+                onUpdatePendingLocked(merged);
+            }
+            return;
+        }
         post(new Runnable() {
             @Override
             public void run() {
@@ -140,6 +295,15 @@ public class CallbackHandler extends Handler implements EmergencyListener, Signa
 
     @Override
     public void setSubs(List<SubscriptionInfo> subs) {
+        if (mCoalesce) {
+            synchronized (mPendingLock) {
+                boolean merged = mHasPendingSubs;
+                mHasPendingSubs = true;
+                mPendingSubs = subs;
+                onUpdatePendingLocked(merged);
+            }
+            return;
+        }
         obtainMessage(MSG_SUBS_CHANGED, subs).sendToTarget();
     }
 
@@ -176,4 +340,47 @@ public class CallbackHandler extends Handler implements EmergencyListener, Signa
         obtainMessage(MSG_ADD_REMOVE_SIGNAL, listening ? 1 : 0, 0, listener).sendToTarget();
     }
 
+    /**
+     * @return the number of coalesced updates which were replaced before being delivered
+     */
+    public long getMergedUpdateCount() {
+        synchronized (mPendingLock) {
+            return mMergedCount;
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("  - CallbackHandler ------");
+        pw.print("  mCoalesce="); pw.println(mCoalesce);
+        if (mCoalesce) {
+            synchronized (mPendingLock) {
+                pw.print("  updates="); pw.print(mUpdateCount);
+                pw.print(" merged="); pw.print(mMergedCount);
+                pw.print(" flushes="); pw.println(mFlushCount);
+            }
+        }
+    }
+
+    private static final class WifiIndicators {
+        boolean pending;
+        boolean enabled;
+        IconState statusIcon;
+        IconState qsIcon;
+        boolean activityIn;
+        boolean activityOut;
+        String description;
+    }
+
+    private static final class MobileIndicators {
+        IconState statusIcon;
+        IconState qsIcon;
+        int statusType;
+        int qsType;
+        boolean activityIn;
+        boolean activityOut;
+        String typeContentDescription;
+        String description;
+        boolean isWide;
+        int subId;
+    }
 }
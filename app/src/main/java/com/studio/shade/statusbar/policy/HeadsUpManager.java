@@ -42,7 +42,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Stack;
 
 /**
  * A manager which handles heads up notifications which is a special mode where
@@ -53,6 +52,8 @@ public class HeadsUpManager implements ViewTreeObserver.OnComputeInternalInsetsL
     private static final boolean DEBUG = false;
     private static final String SETTING_HEADS_UP_SNOOZE_LENGTH_MS = "heads_up_snooze_length_ms";
     private static final int TAG_CLICKED_NOTIFICATION = R.id.is_clicked_heads_up_tag;
+    private static final int MAX_POOL_SIZE = 16;
+    private static final long NO_EXPIRY = Long.MAX_VALUE;
 
     private final int mHeadsUpNotificationDecay;
     private final int mMinimumDisplayTime;
@@ -64,21 +65,41 @@ public class HeadsUpManager implements ViewTreeObserver.OnComputeInternalInsetsL
     private final Handler mHandler = new Handler();
     private final Pools.Pool<HeadsUpEntry> mEntryPool = new Pools.Pool<HeadsUpEntry>() {
 
-        private Stack<HeadsUpEntry> mPoolObjects = new Stack<>();
+        private final Pools.SimplePool<HeadsUpEntry> mPoolObjects =
+                new Pools.SimplePool<>(MAX_POOL_SIZE);
 
         @Override
         public HeadsUpEntry acquire() {
-            if (!mPoolObjects.isEmpty()) {
-                return mPoolObjects.pop();
-            }
-            return new HeadsUpEntry();
+            HeadsUpEntry entry = mPoolObjects.acquire();
+            return entry != null ? entry : new HeadsUpEntry();
         }
 
         @Override
         public boolean release(HeadsUpEntry instance) {
             instance.reset();
-            mPoolObjects.push(instance);
-            return true;
+            return mPoolObjects.release(instance);
+        }
+    };
+
+    /**
+     * The entries waiting to be removed automatically, as a binary min-heap ordered by their
+     * removal time. Only the earliest one has a message posted, see {@link #mExpiryRunnable}.
+     */
+    private HeadsUpEntry[] mExpiryHeap = new HeadsUpEntry[MAX_POOL_SIZE];
+    private int mExpiryCount;
+    private long mScheduledExpiryTime = NO_EXPIRY;
+
+    private final Runnable mExpiryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mScheduledExpiryTime = NO_EXPIRY;
+            final long now = mClock.currentTimeMillis();
+            while (mExpiryCount > 0 && mExpiryHeap[0].mExpiryTime <= now) {
+                HeadsUpEntry expired = mExpiryHeap[0];
+                cancelExpiry(expired);
+                onEntryExpired(expired);
+            }
+            updateExpiryTimer();
         }
     };
 
@@ -243,6 +264,117 @@ public class HeadsUpManager implements ViewTreeObserver.OnComputeInternalInsetsL
         mEntryPool.release(remove);
     }
 
+    private void onEntryExpired(HeadsUpEntry headsUpEntry) {
+        final NotificationData.Entry entry = headsUpEntry.entry;
+        if (!mTrackingHeadsUp) {
+            removeHeadsUpEntry(entry);
+        } else {
+            mEntriesToRemoveAfterExpand.add(entry);
+        }
+    }
+
+    /**
+     * Schedules the automatic removal of an entry, or moves it if it is scheduled already.
+     */
+    private void scheduleExpiry(HeadsUpEntry entry, long expiryTime) {
+        int index = entry.mExpiryIndex;
+        if (index < 0) {
+            if (mExpiryCount == mExpiryHeap.length) {
+                HeadsUpEntry[] heap = new HeadsUpEntry[mExpiryCount * 2];
+                System.arraycopy(mExpiryHeap, 0, heap, 0, mExpiryCount);
+                mExpiryHeap = heap;
+            }
+            index = mExpiryCount++;
+            mExpiryHeap[index] = entry;
+            entry.mExpiryIndex = index;
+        }
+        final long previousTime = entry.mExpiryTime;
+        entry.mExpiryTime = expiryTime;
+        if (index == mExpiryCount - 1 || expiryTime < previousTime) {
+            siftUp(index);
+        } else {
+            siftDown(index);
+        }
+        updateExpiryTimer();
+    }
+
+    private void cancelExpiry(HeadsUpEntry entry) {
+        final int index = entry.mExpiryIndex;
+        if (index < 0) {
+            return;
+        }
+        entry.mExpiryIndex = -1;
+        final int last = --mExpiryCount;
+        final HeadsUpEntry moved = mExpiryHeap[last];
+        mExpiryHeap[last] = null;
+        if (index != last) {
+            mExpiryHeap[index] = moved;
+            moved.mExpiryIndex = index;
+            siftDown(index);
+            siftUp(moved.mExpiryIndex);
+        }
+        // A timer for a later entry is fine, the runnable reschedules itself when it fires early.
+    }
+
+    private void siftUp(int index) {
+        final HeadsUpEntry entry = mExpiryHeap[index];
+        while (index > 0) {
+            final int parent = (index - 1) >>> 1;
+            final HeadsUpEntry parentEntry = mExpiryHeap[parent];
+            if (parentEntry.mExpiryTime <= entry.mExpiryTime) {
+                break;
+            }
+            mExpiryHeap[index] = parentEntry;
+            parentEntry.mExpiryIndex = index;
+            index = parent;
+        }
+        mExpiryHeap[index] = entry;
+        entry.mExpiryIndex = index;
+    }
+
+    private void siftDown(int index) {
+        final HeadsUpEntry entry = mExpiryHeap[index];
+        final int half = mExpiryCount >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            final int right = child + 1;
+            if (right < mExpiryCount
+                    && mExpiryHeap[right].mExpiryTime < mExpiryHeap[child].mExpiryTime) {
+                child = right;
+            }
+            final HeadsUpEntry childEntry = mExpiryHeap[child];
+            if (entry.mExpiryTime <= childEntry.mExpiryTime) {
+                break;
+            }
+            mExpiryHeap[index] = childEntry;
+            childEntry.mExpiryIndex = index;
+            index = child;
+        }
+        mExpiryHeap[index] = entry;
+        entry.mExpiryIndex = index;
+    }
+
+    /**
+     * Makes sure the message for the earliest removal is posted. It is only reposted if an entry
+     * has to be removed earlier than planned, so most updates don't touch the handler at all.
+     */
+    private void updateExpiryTimer() {
+        if (mExpiryCount == 0) {
+            if (mScheduledExpiryTime != NO_EXPIRY) {
+                mHandler.removeCallbacks(mExpiryRunnable);
+                mScheduledExpiryTime = NO_EXPIRY;
+            }
+            return;
+        }
+        final long nextExpiryTime = mExpiryHeap[0].mExpiryTime;
+        if (nextExpiryTime < mScheduledExpiryTime) {
+            mHandler.removeCallbacks(mExpiryRunnable);
+            mScheduledExpiryTime = nextExpiryTime;
+            mHandler.postDelayed(mExpiryRunnable,
+                    Math.max(0, nextExpiryTime - mClock.currentTimeMillis()));
+        }
+    }
+
     private void updatePinnedMode() {
         boolean hasPinnedNotification = hasPinnedNotificationInternal();
         if (hasPinnedNotification == mHasPinnedNotification) {
@@ -417,6 +549,11 @@ public class HeadsUpManager implements ViewTreeObserver.OnComputeInternalInsetsL
         pw.print("  mSnoozeLengthMs="); pw.println(mSnoozeLengthMs);
         pw.print("  now="); pw.println(SystemClock.elapsedRealtime());
         pw.print("  mUser="); pw.println(mUser);
+        pw.print("  scheduled removals="); pw.print(mExpiryCount);
+        if (mScheduledExpiryTime != NO_EXPIRY) {
+            pw.print(" next="); pw.print(mScheduledExpiryTime);
+        }
+        pw.println();
         for (HeadsUpEntry entry: mHeadsUpEntries.values()) {
             pw.print("  HeadsUpEntry="); pw.println(entry.entry);
         }
@@ -610,25 +747,17 @@ public class HeadsUpManager implements ViewTreeObserver.OnComputeInternalInsetsL
         public NotificationData.Entry entry;
         public long postTime;
         public long earliestRemovaltime;
-        private Runnable mRemoveHeadsUpRunnable;
         public boolean remoteInputActive;
         public boolean expanded;
+        // Position in the expiry heap, -1 if no removal is scheduled
+        private int mExpiryIndex = -1;
+        private long mExpiryTime;
 
         public void setEntry(final NotificationData.Entry entry) {
             this.entry = entry;
 
             // The actual post time will be just after the heads-up really slided in
             postTime = mClock.currentTimeMillis() + mTouchAcceptanceDelay;
-            mRemoveHeadsUpRunnable = new Runnable() {
-                @Override
-                public void run() {
-                    if (!mTrackingHeadsUp) {
-                        removeHeadsUpEntry(entry);
-                    } else {
-                        mEntriesToRemoveAfterExpand.add(entry);
-                    }
-                }
-            };
             updateEntry();
         }
 
@@ -642,14 +771,15 @@ public class HeadsUpManager implements ViewTreeObserver.OnComputeInternalInsetsL
             if (updatePostTime) {
                 postTime = Math.max(postTime, currentTime);
             }
-            removeAutoRemovalCallbacks();
             if (mEntriesToRemoveAfterExpand.contains(entry)) {
                 mEntriesToRemoveAfterExpand.remove(entry);
             }
             if (!isSticky()) {
                 long finishTime = postTime + mHeadsUpNotificationDecay;
                 long removeDelay = Math.max(finishTime - currentTime, mMinimumDisplayTime);
-                mHandler.postDelayed(mRemoveHeadsUpRunnable, removeDelay);
+                scheduleExpiry(this, currentTime + removeDelay);
+            } else {
+                removeAutoRemovalCallbacks();
             }
         }
 
@@ -687,7 +817,7 @@ public class HeadsUpManager implements ViewTreeObserver.OnComputeInternalInsetsL
         }
 
         public void removeAutoRemovalCallbacks() {
-            mHandler.removeCallbacks(mRemoveHeadsUpRunnable);
+            cancelExpiry(this);
         }
 
         public boolean wasShownLongEnough() {
@@ -695,15 +825,12 @@ public class HeadsUpManager implements ViewTreeObserver.OnComputeInternalInsetsL
         }
 
         public void removeAsSoonAsPossible() {
-            removeAutoRemovalCallbacks();
-            mHandler.postDelayed(mRemoveHeadsUpRunnable,
-                    earliestRemovaltime - mClock.currentTimeMillis());
+            scheduleExpiry(this, earliestRemovaltime);
         }
 
         public void reset() {
             removeAutoRemovalCallbacks();
             entry = null;
-            mRemoveHeadsUpRunnable = null;
             expanded = false;
             remoteInputActive = false;
         }
@@ -140,7 +140,7 @@ public class NetworkControllerImpl extends BroadcastReceiver
                 (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE),
                 (WifiManager) context.getSystemService(Context.WIFI_SERVICE),
                 SubscriptionManager.from(context), Config.readConfig(context), bgLooper,
-                new CallbackHandler(),
+                new CallbackHandler(true /* coalesce */),
                 new AccessPointControllerImpl(context, bgLooper),
                 new DataUsageController(context),
                 new SubscriptionDefaults());
@@ -663,6 +663,8 @@ public class NetworkControllerImpl extends BroadcastReceiver
         mEthernetSignalController.dump(pw);
 
         mAccessPoints.dump(pw);
+
+        mCallbackHandler.dump(pw);
     }
 
     private static final String emergencyToString(int emergencySource) {
@@ -81,6 +81,7 @@ import com.studio.shade.statusbar.phone.ScrimController;
 import com.studio.shade.statusbar.policy.HeadsUpManager;
 import com.studio.shade.statusbar.policy.ScrollAdapter;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -1934,7 +1935,7 @@ public class NotificationStackScrollLayout extends ViewGroup
         ActivatableNotificationView firstView = mFirstVisibleBackgroundChild;
         int top = 0;
         if (firstView != null) {
-            int finalTranslationY = (int) StackStateAnimator.getFinalTranslationY(firstView);
+            int finalTranslationY = (int) mStateAnimator.getFinalTranslationY(firstView);
             if (mAnimateNextBackgroundTop
                     || mTopAnimator == null && mCurrentBounds.top == finalTranslationY
                     || mTopAnimator != null && mEndAnimationRect.top == finalTranslationY) {
@@ -1947,8 +1948,8 @@ public class NotificationStackScrollLayout extends ViewGroup
         ActivatableNotificationView lastView = mLastVisibleBackgroundChild;
         int bottom = 0;
         if (lastView != null) {
-            int finalTranslationY = (int) StackStateAnimator.getFinalTranslationY(lastView);
-            int finalHeight = StackStateAnimator.getFinalActualHeight(lastView);
+            int finalTranslationY = (int) mStateAnimator.getFinalTranslationY(lastView);
+            int finalHeight = mStateAnimator.getFinalActualHeight(lastView);
             int finalBottom = finalTranslationY + finalHeight;
             finalBottom = Math.min(finalBottom, getHeight());
             if (mAnimateNextBackgroundBottom
@@ -3091,6 +3092,10 @@ public class NotificationStackScrollLayout extends ViewGroup
         clearViewOverlays();
     }
 
+    public void dump(PrintWriter pw) {
+        mStateAnimator.dump(pw);
+    }
+
     private void clearViewOverlays() {
         for (View view : mClearOverlayViewsWhenFinished) {
             StackStateAnimator.removeFromOverlay(view);
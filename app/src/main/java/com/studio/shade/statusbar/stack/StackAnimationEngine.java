@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+
+package com.studio.shade.statusbar.stack;
+
+import android.animation.ValueAnimator;
+import android.view.Choreographer;
+import android.view.View;
+import android.view.animation.Interpolator;
+
+import com.studio.shade.R;
+import com.studio.shade.statusbar.ExpandableView;
+
+import java.io.PrintWriter;
+
+/**
+ * Runs the property animations of the notification stack. All running animations are kept in
+ * flat arrays and advanced together in a single pass per frame, instead of having a
+ * {@link ValueAnimator} with its own listeners for every view and property. A running animation
+ * can be retargeted to a new end value without being cancelled.
+ */
+public class StackAnimationEngine {
+
+    public static final int PROPERTY_TRANSLATION_Y = 0;
+    public static final int PROPERTY_TRANSLATION_Z = 1;
+    public static final int PROPERTY_ALPHA = 2;
+    public static final int PROPERTY_HEIGHT = 3;
+    public static final int PROPERTY_TOP_INSET = 4;
+    public static final int PROPERTY_SHADOW_ALPHA = 5;
+
+    /** The view tags holding the slot of a running animation, indexed by property. */
+    private static final int[] PROPERTY_TAGS = {
+            R.id.translation_y_animator_tag,
+            R.id.translation_z_animator_tag,
+            R.id.alpha_animator_tag,
+            R.id.height_animator_tag,
+            R.id.top_inset_animator_tag,
+            R.id.shadow_alpha_animator_tag,
+    };
+
+    private static final long NOT_STARTED = -1;
+    private static final int INITIAL_CAPACITY = 32;
+    private static final long NANOS_PER_MS = 1000000;
+
+    public interface Callback {
+
+        /**
+         * An animation has ended, either because it reached its end value or because it was
+         * cancelled. Not called when an animation is retargeted.
+         */
+        void onAnimationEnd(View view, int property, float endValue, int flags,
+                boolean cancelled);
+
+        /**
+         * The last running animation has reached its end value.
+         */
+        void onAllAnimationsFinished();
+    }
+
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final Callback mCallback;
+
+    private View[] mViews = new View[INITIAL_CAPACITY];
+    private int[] mProperties = new int[INITIAL_CAPACITY];
+    private int[] mFlags = new int[INITIAL_CAPACITY];
+    private float[] mStartValues = new float[INITIAL_CAPACITY];
+    private float[] mEndValues = new float[INITIAL_CAPACITY];
+    private long[] mStartTimes = new long[INITIAL_CAPACITY];
+    private long[] mDelays = new long[INITIAL_CAPACITY];
+    private long[] mDurations = new long[INITIAL_CAPACITY];
+    private Interpolator[] mInterpolators = new Interpolator[INITIAL_CAPACITY];
+    private int mCount;
+    private boolean mFrameScheduled;
+    private long mLastFrameTime;
+
+    private long mStartedCount;
+    private long mRetargetedCount;
+    private long mFrameCount;
+    private long mTotalFrameNanos;
+    private long mMaxFrameNanos;
+    private int mMaxRunningCount;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            animateFrame(frameTimeNanos / NANOS_PER_MS);
+        }
+    };
+
+    public StackAnimationEngine(Callback callback) {
+        mCallback = callback;
+    }
+
+    public boolean isRunning() {
+        return mCount > 0;
+    }
+
+    public boolean isRunning(View view, int property) {
+        return getSlot(view, property) >= 0;
+    }
+
+    /**
+     * @return the end value of the animation running on the property, or its current value if
+     *         it isn't animating
+     */
+    public float getEndValue(View view, int property) {
+        int slot = getSlot(view, property);
+        return slot >= 0 ? mEndValues[slot] : getValue(view, property);
+    }
+
+    /**
+     * @return the flags the running animation of a property was started with, 0 if none runs
+     */
+    public int getFlags(View view, int property) {
+        int slot = getSlot(view, property);
+        return slot >= 0 ? mFlags[slot] : 0;
+    }
+
+    /**
+     * Animates a property from its current value to a new end value. If the property is
+     * animating already, that animation is retargeted: it continues from the current value and
+     * takes at least as long as it had left.
+     *
+     * @param delay the start delay, ignored when retargeting an animation which already started
+     * @param flags opaque flags handed back in {@link Callback#onAnimationEnd}
+     */
+    public void animate(View view, int property, float endValue, long duration, long delay,
+            Interpolator interpolator, int flags) {
+        final float durationScale = ValueAnimator.getDurationScale();
+        duration = (long) (duration * durationScale);
+        delay = (long) (delay * durationScale);
+        int slot = getSlot(view, property);
+        if (slot >= 0) {
+            long startTime = mStartTimes[slot];
+            if (startTime != NOT_STARTED && mLastFrameTime > startTime) {
+                duration = Math.max(mDurations[slot] - (mLastFrameTime - startTime), duration);
+                delay = 0;
+            } else {
+                duration = Math.max(mDurations[slot], duration);
+            }
+            mRetargetedCount++;
+        } else {
+            slot = obtainSlot(view, property);
+            mStartedCount++;
+        }
+        mStartValues[slot] = getValue(view, property);
+        mEndValues[slot] = endValue;
+        mStartTimes[slot] = NOT_STARTED;
+        mDelays[slot] = delay;
+        mDurations[slot] = duration;
+        mInterpolators[slot] = interpolator;
+        mFlags[slot] = flags;
+        scheduleFrame();
+    }
+
+    /**
+     * Moves the end value of a running animation without changing its timing. The start value
+     * is shifted by the same amount, so the property jumps by the difference.
+     *
+     * @return false if the property isn't animating
+     */
+    public boolean setEndValue(View view, int property, float endValue) {
+        int slot = getSlot(view, property);
+        if (slot < 0) {
+            return false;
+        }
+        mStartValues[slot] += endValue - mEndValues[slot];
+        mEndValues[slot] = endValue;
+        long startTime = mStartTimes[slot];
+        if (startTime != NOT_STARTED && mLastFrameTime >= startTime) {
+            setValue(view, property, getAnimatedValue(slot, mLastFrameTime - startTime));
+        }
+        return true;
+    }
+
+    /**
+     * Cancels the animation of a property, leaving it at its current value.
+     */
+    public void cancel(View view, int property) {
+        int slot = getSlot(view, property);
+        if (slot < 0) {
+            return;
+        }
+        final float endValue = mEndValues[slot];
+        final int flags = mFlags[slot];
+        removeSlot(slot);
+        if (mCount == 0 && mFrameScheduled) {
+            mChoreographer.removeFrameCallback(mFrameCallback);
+            mFrameScheduled = false;
+        }
+        mCallback.onAnimationEnd(view, property, endValue, flags, true /* cancelled */);
+    }
+
+    private void animateFrame(long frameTime) {
+        final long startNanos = System.nanoTime();
+        mFrameScheduled = false;
+        mLastFrameTime = frameTime;
+        boolean finished = false;
+        // Iterating backwards, so ending an animation only moves one which was handled already.
+        // Animations started or cancelled from the callbacks are picked up on the next frame.
+        for (int i = mCount - 1; i >= 0; i--) {
+            if (i >= mCount) {
+                continue;
+            }
+            if (mStartTimes[i] == NOT_STARTED) {
+                mStartTimes[i] = frameTime + mDelays[i];
+            }
+            final long playTime = frameTime - mStartTimes[i];
+            if (playTime < 0) {
+                continue;
+            }
+            final View view = mViews[i];
+            final int property = mProperties[i];
+            if (playTime < mDurations[i]) {
+                setValue(view, property, getAnimatedValue(i, playTime));
+                continue;
+            }
+            final float endValue = mEndValues[i];
+            final int flags = mFlags[i];
+            setValue(view, property, endValue);
+            removeSlot(i);
+            finished = true;
+            mCallback.onAnimationEnd(view, property, endValue, flags, false /* cancelled */);
+        }
+        if (mCount > 0) {
+            scheduleFrame();
+        }
+
+        final long frameNanos = System.nanoTime() - startNanos;
+        mFrameCount++;
+        mTotalFrameNanos += frameNanos;
+        mMaxFrameNanos = Math.max(mMaxFrameNanos, frameNanos);
+
+        if (finished && mCount == 0) {
+            mCallback.onAllAnimationsFinished();
+        }
+    }
+
+    private float getAnimatedValue(int slot, long playTime) {
+        final long duration = mDurations[slot];
+        float fraction = duration > 0 ? Math.min(1f, playTime / (float) duration) : 1f;
+        fraction = mInterpolators[slot].getInterpolation(fraction);
+        return mStartValues[slot] + fraction * (mEndValues[slot] - mStartValues[slot]);
+    }
+
+    private void scheduleFrame() {
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            mChoreographer.postFrameCallback(mFrameCallback);
+        }
+    }
+
+    private static int getSlot(View view, int property) {
+        Integer slot = (Integer) view.getTag(PROPERTY_TAGS[property]);
+        return slot != null ? slot : -1;
+    }
+
+    private int obtainSlot(View view, int property) {
+        if (mCount == mViews.length) {
+            grow(mCount * 2);
+        }
+        final int slot = mCount++;
+        mViews[slot] = view;
+        mProperties[slot] = property;
+        view.setTag(PROPERTY_TAGS[property], slot);
+        mMaxRunningCount = Math.max(mMaxRunningCount, mCount);
+        return slot;
+    }
+
+    private void removeSlot(int slot) {
+        mViews[slot].setTag(PROPERTY_TAGS[mProperties[slot]], null);
+        final int last = --mCount;
+        if (slot != last) {
+            mViews[slot] = mViews[last];
+            mProperties[slot] = mProperties[last];
+            mFlags[slot] = mFlags[last];
+            mStartValues[slot] = mStartValues[last];
+            mEndValues[slot] = mEndValues[last];
+            mStartTimes[slot] = mStartTimes[last];
+            mDelays[slot] = mDelays[last];
+            mDurations[slot] = mDurations[last];
+            mInterpolators[slot] = mInterpolators[last];
+            mViews[slot].setTag(PROPERTY_TAGS[mProperties[slot]], slot);
+        }
+        mViews[last] = null;
+        mInterpolators[last] = null;
+    }
+
+    private void grow(int capacity) {
+        View[] views = new View[capacity];
+        System.arraycopy(mViews, 0, views, 0, mCount);
+        mViews = views;
+        Interpolator[] interpolators = new Interpolator[capacity];
+        System.arraycopy(mInterpolators, 0, interpolators, 0, mCount);
+        mInterpolators = interpolators;
+        mProperties = grow(mProperties, capacity);
+        mFlags = grow(mFlags, capacity);
+        mStartValues = grow(mStartValues, capacity);
+        mEndValues = grow(mEndValues, capacity);
+        mStartTimes = grow(mStartTimes, capacity);
+        mDelays = grow(mDelays, capacity);
+        mDurations = grow(mDurations, capacity);
+    }
+
+    private int[] grow(int[] array, int capacity) {
+        int[] result = new int[capacity];
+        System.arraycopy(array, 0, result, 0, mCount);
+        return result;
+    }
+
+    private float[] grow(float[] array, int capacity) {
+        float[] result = new float[capacity];
+        System.arraycopy(array, 0, result, 0, mCount);
+        return result;
+    }
+
+    private long[] grow(long[] array, int capacity) {
+        long[] result = new long[capacity];
+        System.arraycopy(array, 0, result, 0, mCount);
+        return result;
+    }
+
+    static float getValue(View view, int property) {
+        switch (property) {
+            case PROPERTY_TRANSLATION_Y:
+                return view.getTranslationY();
+            case PROPERTY_TRANSLATION_Z:
+                return view.getTranslationZ();
+            case PROPERTY_ALPHA:
+                return view.getAlpha();
+            case PROPERTY_HEIGHT:
+                return ((ExpandableView) view).getActualHeight();
+            case PROPERTY_TOP_INSET:
+                return ((ExpandableView) view).getClipTopAmount();
+            case PROPERTY_SHADOW_ALPHA:
+                return ((ExpandableView) view).getShadowAlpha();
+            default:
+                throw new IllegalArgumentException("unknown property " + property);
+        }
+    }
+
+    static void setValue(View view, int property, float value) {
+        switch (property) {
+            case PROPERTY_TRANSLATION_Y:
+                view.setTranslationY(value);
+                break;
+            case PROPERTY_TRANSLATION_Z:
+                view.setTranslationZ(value);
+                break;
+            case PROPERTY_ALPHA:
+                view.setAlpha(value);
+                break;
+            case PROPERTY_HEIGHT:
+                ((ExpandableView) view).setActualHeight((int) value, false /* notifyListeners */);
+                break;
+            case PROPERTY_TOP_INSET:
+                ((ExpandableView) view).setClipTopAmount((int) value);
+                break;
+            case PROPERTY_SHADOW_ALPHA:
+                ((ExpandableView) view).setShadowAlpha(value);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown property " + property);
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("StackAnimationEngine state:");
+        pw.print("  running="); pw.print(mCount);
+        pw.print(" peak="); pw.println(mMaxRunningCount);
+        pw.print("  started="); pw.print(mStartedCount);
+        pw.print(" retargeted="); pw.println(mRetargetedCount);
+        pw.print("  frames="); pw.print(mFrameCount);
+        if (mFrameCount > 0) {
+            pw.print(" avgFrameUs="); pw.print(mTotalFrameNanos / mFrameCount / 1000);
+            pw.print(" maxFrameUs="); pw.print(mMaxFrameNanos / 1000);
+        }
+        pw.println();
+    }
+}
@@ -113,7 +113,9 @@ public class StackScrollAlgorithm {
 
     private void getNotificationChildrenStates(StackScrollState resultState,
             StackScrollAlgorithmState algorithmState) {
-        int childCount = algorithmState.visibleChildren.size();
+        // Children of groups hidden in the bottom stack are invisible together with their
+        // parent, so there is no need to lay them out.
+        int childCount = algorithmState.firstCulledIndex;
         for (int i = 0; i < childCount; i++) {
             ExpandableView v = algorithmState.visibleChildren.get(i);
             if (v instanceof ExpandableNotificationRow) {
@@ -327,6 +329,7 @@ public class StackScrollAlgorithm {
         float currentYPosition = -algorithmState.scrollY;
 
         int childCount = algorithmState.visibleChildren.size();
+        algorithmState.firstCulledIndex = childCount;
         int paddingAfterChild;
         for (int i = 0; i < childCount; i++) {
             ExpandableView child = algorithmState.visibleChildren.get(i);
@@ -382,9 +385,42 @@ public class StackScrollAlgorithm {
 
             childViewState.yTranslation += ambientState.getTopPadding()
                     + ambientState.getStackTranslation();
+
+            if (childViewState.hidden
+                    && childViewState.location == StackViewState.LOCATION_BOTTOM_STACK_HIDDEN
+                    && currentYPosition >= bottomStackStart) {
+                // All the following children end up hidden in the bottom stack as well, no need
+                // to walk through the whole algorithm for them.
+                cullChildrenInBottomStack(resultState, algorithmState, ambientState, i + 1);
+                break;
+            }
         }
     }
 
+    /**
+     * Puts all children starting at {@code startIndex} fully into the hidden part of the bottom
+     * stack, resulting in the same state {@link #updateStateForChildFullyInBottomStack} would.
+     */
+    private void cullChildrenInBottomStack(StackScrollState resultState,
+            StackScrollAlgorithmState algorithmState, AmbientState ambientState,
+            int startIndex) {
+        int childCount = algorithmState.visibleChildren.size();
+        float stackEnd = ambientState.getInnerHeight() + ambientState.getTopPadding()
+                + ambientState.getStackTranslation();
+        for (int i = startIndex; i < childCount; i++) {
+            ExpandableView child = algorithmState.visibleChildren.get(i);
+            StackViewState childViewState = resultState.getViewStateForView(child);
+            int collapsedHeight = child.getCollapsedHeight();
+            childViewState.hidden = true;
+            childViewState.shadowAlpha = 0.0f;
+            childViewState.location = StackViewState.LOCATION_BOTTOM_STACK_HIDDEN;
+            childViewState.height = collapsedHeight;
+            childViewState.yTranslation = stackEnd - collapsedHeight;
+        }
+        algorithmState.itemsInBottomStack += childCount - startIndex;
+        algorithmState.firstCulledIndex = startIndex;
+    }
+
     private int getPaddingAfterChild(StackScrollAlgorithmState algorithmState,
             ExpandableView child) {
         Float paddingValue = algorithmState.increasedPaddingMap.get(child);
@@ -650,6 +686,12 @@ public class StackScrollAlgorithm {
          */
         public float partialInBottom;
 
+        /**
+         * The index of the first child which was culled because it is hidden in the bottom stack
+         * like all children after it, or the number of children if none were culled.
+         */
+        public int firstCulledIndex;
+
         /**
          * The children from the host view which are not gone.
          */
@@ -26,24 +26,35 @@ import com.studio.shade.statusbar.EmptyShadeView;
 import com.studio.shade.statusbar.ExpandableNotificationRow;
 import com.studio.shade.statusbar.ExpandableView;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.WeakHashMap;
 
 /**
  * A state of a {@link com.studio.shade.statusbar.stack.NotificationStackScrollLayout} which
  * can be applied to a viewGroup.
+ *
+ * <p>The states are stored in flat arrays indexed by a slot which is remembered on the view
+ * itself (see {@link ExpandableView#getStateSlot}), so looking up a state doesn't need any
+ * hashing and a layout pass doesn't allocate once all views have a slot.</p>
  */
 public class StackScrollState {
 
     private static final String CHILD_NOT_FOUND_TAG = "StackScrollStateNoSuchChild";
+    private static final int NO_SLOT = -1;
+    private static final int INITIAL_CAPACITY = 16;
 
     private final ViewGroup mHostView;
-    private WeakHashMap<ExpandableView, StackViewState> mStateMap;
+    private StackViewState[] mStates = new StackViewState[INITIAL_CAPACITY];
+    private ExpandableView[] mSlotViews = new ExpandableView[INITIAL_CAPACITY];
+    private int[] mSlotGenerations = new int[INITIAL_CAPACITY];
+    private int[] mFreeSlots = new int[INITIAL_CAPACITY];
+    private int mFreeSlotCount;
+    private int mSlotCount;
+    private int mGeneration;
     private final int mClearAllTopPadding;
 
     public StackScrollState(ViewGroup hostView) {
         mHostView = hostView;
-        mStateMap = new WeakHashMap<>();
         mClearAllTopPadding = hostView.getContext().getResources().getDimensionPixelSize(
                 R.dimen.clear_all_padding_top);
     }
@@ -53,6 +64,7 @@ public class StackScrollState {
     }
 
     public void resetViewStates() {
+        mGeneration++;
         int numChildren = mHostView.getChildCount();
         for (int i = 0; i < numChildren; i++) {
             ExpandableView child = (ExpandableView) mHostView.getChildAt(i);
@@ -70,14 +82,16 @@ public class StackScrollState {
                 }
             }
         }
+        releaseDetachedSlots();
     }
 
     private void resetViewState(ExpandableView view) {
-        StackViewState viewState = mStateMap.get(view);
-        if (viewState == null) {
-            viewState = new StackViewState();
-            mStateMap.put(view, viewState);
+        int slot = getSlot(view);
+        if (slot == NO_SLOT) {
+            slot = obtainSlot(view);
         }
+        mSlotGenerations[slot] = mGeneration;
+        StackViewState viewState = mStates[slot];
         // initialize with the default values of the view
         viewState.height = view.getIntrinsicHeight();
         viewState.gone = view.getVisibility() == View.GONE;
@@ -88,22 +102,82 @@ public class StackScrollState {
     }
 
     public StackViewState getViewStateForView(View requestedView) {
-        return mStateMap.get(requestedView);
+        int slot = getSlot(requestedView);
+        return slot == NO_SLOT ? null : mStates[slot];
     }
 
     public void removeViewStateForView(View child) {
-        mStateMap.remove(child);
+        int slot = getSlot(child);
+        if (slot != NO_SLOT) {
+            releaseSlot(slot);
+        }
+    }
+
+    private int getSlot(View view) {
+        if (!(view instanceof ExpandableView)) {
+            return NO_SLOT;
+        }
+        int slot = ((ExpandableView) view).getStateSlot();
+        if (slot < 0 || slot >= mSlotCount || mSlotViews[slot] != view) {
+            return NO_SLOT;
+        }
+        return slot;
+    }
+
+    private int obtainSlot(ExpandableView view) {
+        int slot;
+        if (mFreeSlotCount > 0) {
+            slot = mFreeSlots[--mFreeSlotCount];
+        } else {
+            if (mSlotCount == mStates.length) {
+                int capacity = mSlotCount * 2;
+                mStates = Arrays.copyOf(mStates, capacity);
+                mSlotViews = Arrays.copyOf(mSlotViews, capacity);
+                mSlotGenerations = Arrays.copyOf(mSlotGenerations, capacity);
+                mFreeSlots = Arrays.copyOf(mFreeSlots, capacity);
+            }
+            slot = mSlotCount++;
+        }
+        // A new view starts out with a fresh state, like it did before it had a slot.
+        mStates[slot] = new StackViewState();
+        mSlotViews[slot] = view;
+        view.setStateSlot(slot);
+        return slot;
+    }
+
+    private void releaseSlot(int slot) {
+        ExpandableView view = mSlotViews[slot];
+        if (view.getStateSlot() == slot) {
+            view.setStateSlot(NO_SLOT);
+        }
+        mStates[slot] = null;
+        mSlotViews[slot] = null;
+        mFreeSlots[mFreeSlotCount++] = slot;
+    }
+
+    /**
+     * Releases the slots of views which were not part of the last reset and are not attached
+     * anymore, such that we don't hold on to views nobody removed explicitly.
+     */
+    private void releaseDetachedSlots() {
+        for (int slot = 0; slot < mSlotCount; slot++) {
+            ExpandableView view = mSlotViews[slot];
+            if (view != null && mSlotGenerations[slot] != mGeneration
+                    && view.getParent() == null) {
+                releaseSlot(slot);
+            }
+        }
     }
 
     /**
-     * Apply the properties saved in {@link #mStateMap} to the children of the {@link #mHostView}.
+     * Apply the properties saved in {@link #mStates} to the children of the {@link #mHostView}.
      * The properties are only applied if they effectively changed.
      */
     public void apply() {
         int numChildren = mHostView.getChildCount();
         for (int i = 0; i < numChildren; i++) {
             ExpandableView child = (ExpandableView) mHostView.getChildAt(i);
-            StackViewState state = mStateMap.get(child);
+            StackViewState state = getViewStateForView(child);
             if (!applyState(child, state)) {
                 continue;
             }
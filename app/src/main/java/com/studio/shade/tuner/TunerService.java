@@ -18,6 +18,7 @@ package com.studio.shade.tuner;
 import android.app.ActivityManager;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
+import android.content.ContentProvider;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -27,6 +28,7 @@ import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.UserInfo;
 import android.database.ContentObserver;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
@@ -36,6 +38,7 @@ import android.provider.Settings;
 import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.ArraySet;
+import android.view.Choreographer;
 
 import com.studio.shade.BatteryMeterDrawable;
 import com.studio.shade.DemoMode;
@@ -58,43 +61,68 @@ public class TunerService extends SystemUI {
 
     private static final int CURRENT_TUNER_VERSION = 1;
 
+    private static final String[] SNAPSHOT_PROJECTION = {
+            Settings.NameValueTable.NAME, Settings.NameValueTable.VALUE };
+
     private final Observer mObserver = new Observer();
-    // Map of Uris we listen on to their settings keys.
-    private final ArrayMap<Uri, String> mListeningUris = new ArrayMap<>();
     // Map of settings keys to the listener.
     private final HashMap<String, Set<Tunable>> mTunableLookup = new HashMap<>();
+    // The secure settings of mSnapshotUser, read in a single query so that lookups don't need
+    // a call into the settings provider. Values may be read and written on any thread, so the
+    // snapshot is guarded by mSnapshotLock.
+    private final Object mSnapshotLock = new Object();
+    private final ArrayMap<String, String> mSnapshot = new ArrayMap<>();
+    // Keys in the snapshot which changed since they were read.
+    private final ArraySet<String> mStaleKeys = new ArraySet<>();
+    // Tuned keys which changed, their tunables are notified on the next frame.
+    private final ArraySet<String> mPendingKeys = new ArraySet<>();
+    private int mSnapshotUser = UserHandle.USER_NULL;
+    private boolean mDispatchScheduled;
+
+    private final Choreographer.FrameCallback mDispatchCallback =
+            new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            dispatchPendingChanges();
+        }
+    };
 
     private ContentResolver mContentResolver;
-    private int mCurrentUser;
+    private volatile int mCurrentUser;
     private CurrentUserTracker mUserTracker;
 
     @Override
     public void start() {
         mContentResolver = mContext.getContentResolver();
+        // A single observer for all secure settings keeps the snapshot of any user up to date.
+        mContentResolver.registerContentObserver(Settings.Secure.CONTENT_URI, true, mObserver,
+                UserHandle.USER_ALL);
 
+        mCurrentUser = ActivityManager.getCurrentUser();
+        // Only the current user's settings are snapshotted, the others are read one by one.
         for (UserInfo user : UserManager.get(mContext).getUsers()) {
-            mCurrentUser = user.getUserHandle().getIdentifier();
-            if (getValue(TUNER_VERSION, 0) != CURRENT_TUNER_VERSION) {
-                upgradeTuner(getValue(TUNER_VERSION, 0), CURRENT_TUNER_VERSION);
+            final int userId = user.getUserHandle().getIdentifier();
+            final String version = getValueForUser(TUNER_VERSION, userId);
+            final int oldVersion = version != null ? parseInt(version, 0) : 0;
+            if (oldVersion != CURRENT_TUNER_VERSION) {
+                upgradeTuner(oldVersion, CURRENT_TUNER_VERSION, userId);
             }
         }
         putComponent(TunerService.class, this);
 
-        mCurrentUser = ActivityManager.getCurrentUser();
         mUserTracker = new CurrentUserTracker(mContext) {
             @Override
             public void onUserSwitched(int newUserId) {
                 mCurrentUser = newUserId;
                 reloadAll();
-                reregisterAll();
             }
         };
         mUserTracker.startTracking();
     }
 
-    private void upgradeTuner(int oldVersion, int newVersion) {
+    private void upgradeTuner(int oldVersion, int newVersion, int userId) {
         if (oldVersion < 1) {
-            String blacklistStr = getValue(StatusBarIconController.ICON_BLACKLIST);
+            String blacklistStr = getValueForUser(StatusBarIconController.ICON_BLACKLIST, userId);
             if (blacklistStr != null) {
                 ArraySet<String> iconBlacklist =
                         StatusBarIconController.getIconBlacklist(blacklistStr);
@@ -102,28 +130,92 @@ public class TunerService extends SystemUI {
                 iconBlacklist.add("rotate");
                 iconBlacklist.add("headset");
 
-                Settings.Secure.putStringForUser(mContentResolver,
-                        StatusBarIconController.ICON_BLACKLIST,
-                        TextUtils.join(",", iconBlacklist), mCurrentUser);
+                setValueForUser(StatusBarIconController.ICON_BLACKLIST,
+                        TextUtils.join(",", iconBlacklist), userId);
             }
         }
-        setValue(TUNER_VERSION, newVersion);
+        setValueForUser(TUNER_VERSION, Integer.toString(newVersion), userId);
     }
 
     public String getValue(String setting) {
-        return Settings.Secure.getStringForUser(mContentResolver, setting, mCurrentUser);
+        return getValueForUser(setting, mCurrentUser);
     }
 
     public void setValue(String setting, String value) {
-         Settings.Secure.putStringForUser(mContentResolver, setting, value, mCurrentUser);
+        setValueForUser(setting, value, mCurrentUser);
+    }
+
+    private String getValueForUser(String setting, int userId) {
+        synchronized (mSnapshotLock) {
+            if (userId != mCurrentUser || !ensureSnapshotLocked()) {
+                return Settings.Secure.getStringForUser(mContentResolver, setting, userId);
+            }
+            if (mStaleKeys.remove(setting)) {
+                mSnapshot.put(setting,
+                        Settings.Secure.getStringForUser(mContentResolver, setting, userId));
+            }
+            return mSnapshot.get(setting);
+        }
+    }
+
+    private void setValueForUser(String setting, String value, int userId) {
+        synchronized (mSnapshotLock) {
+            if (Settings.Secure.putStringForUser(mContentResolver, setting, value, userId)
+                    && mSnapshotUser == userId) {
+                mSnapshot.put(setting, value);
+                mStaleKeys.remove(setting);
+            }
+        }
     }
 
     public int getValue(String setting, int def) {
-        return Settings.Secure.getIntForUser(mContentResolver, setting, def, mCurrentUser);
+        String value = getValue(setting);
+        if (value == null) {
+            return def;
+        }
+        return parseInt(value, def);
+    }
+
+    private static int parseInt(String value, int def) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return def;
+        }
     }
 
     public void setValue(String setting, int value) {
-         Settings.Secure.putIntForUser(mContentResolver, setting, value, mCurrentUser);
+        setValue(setting, Integer.toString(value));
+    }
+
+    /**
+     * Makes sure the snapshot holds the settings of the current user.
+     *
+     * @return false if the settings couldn't be queried, values need to be read one by one then
+     */
+    private boolean ensureSnapshotLocked() {
+        final int currentUser = mCurrentUser;
+        if (mSnapshotUser == currentUser) {
+            return true;
+        }
+        mSnapshot.clear();
+        mStaleKeys.clear();
+        mSnapshotUser = UserHandle.USER_NULL;
+        Cursor cursor = mContentResolver.query(
+                ContentProvider.maybeAddUserId(Settings.Secure.CONTENT_URI, currentUser),
+                SNAPSHOT_PROJECTION, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                mSnapshot.put(cursor.getString(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        mSnapshotUser = currentUser;
+        return true;
     }
 
     public void addTunable(Tunable tunable, String... keys) {
@@ -137,14 +229,8 @@ public class TunerService extends SystemUI {
             mTunableLookup.put(key, new ArraySet<Tunable>());
         }
         mTunableLookup.get(key).add(tunable);
-        Uri uri = Settings.Secure.getUriFor(key);
-        if (!mListeningUris.containsKey(uri)) {
-            mListeningUris.put(uri, key);
-            mContentResolver.registerContentObserver(uri, false, mObserver, mCurrentUser);
-        }
         // Send the first state.
-        String value = Settings.Secure.getStringForUser(mContentResolver, key, mCurrentUser);
-        tunable.onTuningChanged(key, value);
+        tunable.onTuningChanged(key, getValue(key));
     }
 
     public void removeTunable(Tunable tunable) {
@@ -153,32 +239,50 @@ public class TunerService extends SystemUI {
         }
     }
 
-    protected void reregisterAll() {
-        if (mListeningUris.size() == 0) {
+    public void reloadSetting(Uri uri) {
+        if (Settings.Secure.CONTENT_URI.equals(uri)) {
+            // Not a single setting, take a new snapshot with the next read.
+            synchronized (mSnapshotLock) {
+                mSnapshotUser = UserHandle.USER_NULL;
+            }
             return;
         }
-        mContentResolver.unregisterContentObserver(mObserver);
-        for (Uri uri : mListeningUris.keySet()) {
-            mContentResolver.registerContentObserver(uri, false, mObserver, mCurrentUser);
+        String key = uri.getLastPathSegment();
+        if (key == null) {
+            return;
+        }
+        synchronized (mSnapshotLock) {
+            if (mSnapshotUser == mCurrentUser) {
+                mStaleKeys.add(key);
+            }
+        }
+        if (mTunableLookup.containsKey(key) && mPendingKeys.add(key) && !mDispatchScheduled) {
+            // A burst of changes to the same key only notifies its tunables once.
+            mDispatchScheduled = true;
+            Choreographer.getInstance().postFrameCallback(mDispatchCallback);
         }
     }
 
-    public void reloadSetting(Uri uri) {
-        String key = mListeningUris.get(uri);
-        Set<Tunable> tunables = mTunableLookup.get(key);
-        if (tunables == null) {
-            return;
-        }
-        String value = Settings.Secure.getStringForUser(mContentResolver, key, mCurrentUser);
-        for (Tunable tunable : tunables) {
-            tunable.onTuningChanged(key, value);
+    private void dispatchPendingChanges() {
+        mDispatchScheduled = false;
+        while (!mPendingKeys.isEmpty()) {
+            String key = mPendingKeys.removeAt(mPendingKeys.size() - 1);
+            Set<Tunable> tunables = mTunableLookup.get(key);
+            if (tunables == null) {
+                continue;
+            }
+            String value = getValue(key);
+            for (Tunable tunable : tunables) {
+                tunable.onTuningChanged(key, value);
+            }
         }
     }
 
     private void reloadAll() {
+        // The snapshot of the new user is loaded with the first value.
+        mPendingKeys.clear();
         for (String key : mTunableLookup.keySet()) {
-            String value = Settings.Secure.getStringForUser(mContentResolver, key,
-                    mCurrentUser);
+            String value = getValue(key);
             for (Tunable tunable : mTunableLookup.get(key)) {
                 tunable.onTuningChanged(key, value);
             }
@@ -279,7 +383,7 @@ public class TunerService extends SystemUI {
 
         @Override
         public void onChange(boolean selfChange, Uri uri, int userId) {
-            if (userId == ActivityManager.getCurrentUser()) {
+            if (userId == mCurrentUser) {
                 reloadSetting(uri);
             }
         }